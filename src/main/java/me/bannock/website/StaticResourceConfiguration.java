@@ -0,0 +1,73 @@
+package me.bannock.website;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.ResourceHttpRequestHandler;
+import org.springframework.web.servlet.resource.ResourceUrlProvider;
+
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Files under /resources are linked to by urls containing a hash of their contents, which the resource chain
+ * adds to links in templates. A hashed url always refers to the same contents, so browsers may keep those
+ * responses forever. Requests without a hash, or with an outdated one, are told to revalidate instead
+ */
+@Configuration
+public class StaticResourceConfiguration implements WebMvcConfigurer {
+
+    /**
+     * @param resourceUrlProvider Looks up the current hashed url of a file. Lazy since it's made
+     *                            by the same configuration that asks for the interceptors
+     */
+    public StaticResourceConfiguration(@Lazy ResourceUrlProvider resourceUrlProvider){
+        this.resourceUrlProvider = resourceUrlProvider;
+    }
+
+    private final ResourceUrlProvider resourceUrlProvider;
+
+    /**
+     * Matches the hash that the content version strategy adds before a file's extension
+     */
+    private static final Pattern CONTENT_HASH_PATTERN = Pattern.compile("-[0-9a-f]{32}(\\.[^/.]+)$");
+
+    @Value("${bannock.resources.versionedCacheControl}")
+    private String versionedCacheControl;
+
+    @Value("${bannock.resources.unversionedCacheControl}")
+    private String unversionedCacheControl;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                if (handler instanceof ResourceHttpRequestHandler){
+                    response.setHeader(HttpHeaders.CACHE_CONTROL,
+                            isCurrentVersion(request) ? versionedCacheControl : unversionedCacheControl);
+                }
+                return true;
+            }
+        }).addPathPatterns("/resources/**");
+    }
+
+    /**
+     * @param request The request for a resource
+     * @return True if the request's url contains the hash of the resource's current contents
+     */
+    boolean isCurrentVersion(HttpServletRequest request){
+        String lookupPath = request.getRequestURI().substring(request.getContextPath().length());
+        String unversionedPath = CONTENT_HASH_PATTERN.matcher(lookupPath).replaceFirst("$1");
+        if (unversionedPath.equals(lookupPath))
+            return false;
+        return Objects.equals(lookupPath, resourceUrlProvider.getForLookupPath(unversionedPath));
+    }
+
+}
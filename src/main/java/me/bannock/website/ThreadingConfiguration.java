@@ -0,0 +1,76 @@
+package me.bannock.website;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Request handling, @Async methods and scheduled tasks run on virtual threads when
+ * spring.threads.virtual.enabled is true. Spring only honours that on Java 21 or newer and
+ * otherwise silently falls back to platform threads, so this makes sure the fallback is noticed
+ */
+@Configuration
+@EnableAsync
+public class ThreadingConfiguration {
+
+    private final Logger logger = LogManager.getLogger();
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    /**
+     * Runs blocking file work, such as writing uploaded assets, so many files can be handled at once without
+     * tying up an unbounded amount of threads. Tasks that don't fit in the queue are run by the thread submitting
+     * them, which slows down the submitter instead of failing. The submitter's security context is carried over
+     * to the task so secured services may be called from it
+     * @param threads The amount of threads doing file work
+     * @param queueSize The most tasks that may wait for a thread
+     * @param meterRegistry The registry to publish the executor's metrics to
+     * @return The executor
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService storageIoExecutor(@Value("${bannock.storage.ioThreads}") int threads,
+                                             @Value("${bannock.storage.ioQueueSize}") int queueSize,
+                                             MeterRegistry meterRegistry){
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "storage-io-%s".formatted(threadCount.incrementAndGet()));
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        return new DelegatingSecurityContextExecutorService(
+                ExecutorServiceMetrics.monitor(meterRegistry, executor, "storage.io"));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void logThreadingMode(){
+        if (!virtualThreadsEnabled){
+            logger.info("Handling requests on platform threads");
+            return;
+        }
+        JavaVersion javaVersion = JavaVersion.getJavaVersion();
+        if (!javaVersion.isEqualOrNewerThan(JavaVersion.TWENTY_ONE)){
+            logger.warn("Virtual threads are enabled but the runtime does not support them, so platform threads " +
+                    "are being used instead, javaVersion={}", javaVersion);
+            return;
+        }
+        logger.info("Handling requests on virtual threads, javaVersion={}", javaVersion);
+    }
+
+}
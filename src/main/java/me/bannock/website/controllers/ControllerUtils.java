@@ -1,9 +1,12 @@
 package me.bannock.website.controllers;
 
+import me.bannock.website.security.authentication.UserDetailsImpl;
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import java.util.Optional;
+
 public class ControllerUtils {
 
     /**
@@ -16,4 +19,14 @@ public class ControllerUtils {
         return auth;
     }
 
+    /**
+     * @return the logged in user's details, or empty if not logged in or anonymous session
+     */
+    public static Optional<UserDetailsImpl> getLoggedInUser(){
+        Authentication auth = getAuthNoAnon();
+        if (auth != null && auth.isAuthenticated() && auth.getPrincipal() instanceof UserDetailsImpl userDetails)
+            return Optional.of(userDetails);
+        return Optional.empty();
+    }
+
 }
@@ -0,0 +1,363 @@
+package me.bannock.website.controllers;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.ServletResponseWrapper;
+import me.bannock.website.services.storage.StoredFile;
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class FileTransferUtils {
+
+    // Request attributes used by tomcat to hand a file off to the connector, see org.apache.catalina.Globals
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_FILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * Serves a file while honoring conditional and range requests. Responds with 304 if the client's copy is
+     * still fresh, 206 with either the single requested range or a multipart/byteranges body if ranges are
+     * requested, 416 if none of the requested ranges can be satisfied, and otherwise the entire file
+     * @param file The file to serve
+     * @param contentType The content type of the file
+     * @param cacheControl The value of the cache control header to send with the file
+     * @param request The request being responded to
+     * @param response The response to write the file to. Nothing else may be written to the body
+     * @throws IOException If something goes wrong while sending the file
+     */
+    public static void serveFile(StoredFile file, String contentType, String cacheControl,
+                                 HttpServletRequest request, HttpServletResponse response) throws IOException {
+        serveFile(file, null, contentType, cacheControl, request, response);
+    }
+
+    /**
+     * Serves a file the same as {@link #serveFile(StoredFile, String, String, HttpServletRequest, HttpServletResponse)},
+     * but sends the body from data that's already in memory instead of reading the file
+     * @param file The file to serve
+     * @param fileData The file's entire contents, or null to read them from the file. Its position and limit are not changed
+     * @param contentType The content type of the file
+     * @param cacheControl The value of the cache control header to send with the file
+     * @param request The request being responded to
+     * @param response The response to write the file to. Nothing else may be written to the body
+     * @throws IOException If something goes wrong while sending the file
+     */
+    public static void serveFile(StoredFile file, ByteBuffer fileData, String contentType, String cacheControl,
+                                 HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String eTag = getETag(file);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        // Also handles If-Match and If-Unmodified-Since, and sets the ETag and Last-Modified headers
+        if (new ServletWebRequest(request, response).checkNotModified(eTag, file.lastModifiedMillis()))
+            return;
+
+        response.setContentType(contentType);
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !isIfRangeSatisfied(request, file, eTag)){
+            transferFile(file, fileData, request, response);
+            return;
+        }
+
+        List<ByteRegion> regions = new ArrayList<>();
+        long requestedBytes = 0;
+        try{
+            for (HttpRange range : HttpRange.parseRanges(rangeHeader)){
+                long start = range.getRangeStart(file.size());
+                long end = range.getRangeEnd(file.size()) + 1;
+                if (start < file.size() && start < end){
+                    regions.add(new ByteRegion(start, end));
+                    requestedBytes += end - start;
+                }
+            }
+        }catch (IllegalArgumentException e){
+            // Malformed range headers must be ignored
+            transferFile(file, fileData, request, response);
+            return;
+        }
+
+        if (regions.isEmpty()){
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */%d".formatted(file.size()));
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        // Ranges asking for more than the whole file, such as the same range many times over, would make
+        // the response larger than the file itself. The whole file is sent once instead
+        if (requestedBytes > file.size()){
+            transferFile(file, fileData, request, response);
+            return;
+        }
+        regions = coalesceRegions(regions);
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (regions.size() == 1){
+            ByteRegion region = regions.get(0);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, region.toContentRange(file.size()));
+            transferFileRegion(file, fileData, region.start(), region.end(), request, response);
+            return;
+        }
+        transferFileRegions(file, fileData, contentType, regions, response);
+    }
+
+    /**
+     * @param request The request to check
+     * @param encoding The content coding to check for, such as gzip
+     * @return True if the request's Accept-Encoding header allows the response to use the encoding
+     */
+    public static boolean isEncodingAccepted(HttpServletRequest request, String encoding){
+        Double encodingQuality = null, wildcardQuality = null;
+        for (String acceptEncoding : Collections.list(request.getHeaders(HttpHeaders.ACCEPT_ENCODING))){
+            for (String coding : acceptEncoding.split(",")){
+                String[] codingParts = coding.split(";");
+                String codingName = codingParts[0].trim();
+                double quality = 1;
+                for (int i = 1; i < codingParts.length; i++){
+                    String parameter = codingParts[i].trim();
+                    if (!parameter.startsWith("q="))
+                        continue;
+                    try{
+                        quality = Double.parseDouble(parameter.substring(2));
+                    }catch (NumberFormatException e){
+                        quality = 0;
+                    }
+                }
+                if (codingName.equalsIgnoreCase(encoding))
+                    encodingQuality = quality;
+                else if (codingName.equals("*"))
+                    wildcardQuality = quality;
+            }
+        }
+        if (encodingQuality != null)
+            return encodingQuality > 0;
+        return wildcardQuality != null && wildcardQuality > 0;
+    }
+
+    /**
+     * Sends the entire file as the response body and sets the content length
+     * @param file The file to send
+     * @param fileData The file's entire contents, or null to read them from the file
+     * @param request The request being responded to
+     * @param response The response to write the file to. Nothing else may be written to the body
+     * @throws IOException If something goes wrong while sending the file
+     */
+    public static void transferFile(StoredFile file, ByteBuffer fileData, HttpServletRequest request,
+                                    HttpServletResponse response) throws IOException {
+        transferFileRegion(file, fileData, 0, file.size(), request, response);
+    }
+
+    /**
+     * Sends a region of a file as the response body and sets the content length.
+     * If the container supports it, the file is handed off to be sent with sendfile once the
+     * request has been handled, otherwise it's transferred from the file's channel into the response's
+     * channel. Data that's already in memory is written directly, as handing off small files costs more
+     * than sending them
+     * @param file The file to send
+     * @param fileData The file's entire contents, or null to read them from the file
+     * @param start The position of the first byte to send
+     * @param end The position after the last byte to send
+     * @param request The request being responded to
+     * @param response The response to write the file to. Nothing else may be written to the body
+     * @throws IOException If something goes wrong while sending the file
+     */
+    public static void transferFileRegion(StoredFile file, ByteBuffer fileData, long start, long end,
+                                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentLengthLong(end - start);
+        if (fileData == null && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))){
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.path().toRealPath().toString());
+            request.setAttribute(SENDFILE_FILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_FILE_END_ATTR, end);
+            return;
+        }
+        writeFileRegion(file, fileData, start, end, getResponseChannel(response));
+    }
+
+    /**
+     * Sends many regions of a file as a multipart/byteranges response body
+     * @param file The file to send
+     * @param fileData The file's entire contents, or null to read them from the file
+     * @param contentType The content type of the file
+     * @param regions The regions of the file to send, in the order they should be sent
+     * @param response The response to write to
+     * @throws IOException If something goes wrong while sending the file
+     */
+    private static void transferFileRegions(StoredFile file, ByteBuffer fileData, String contentType, List<ByteRegion> regions,
+                                            HttpServletResponse response) throws IOException {
+        String boundary = new String(MimeTypeUtils.generateMultipartBoundary(), StandardCharsets.US_ASCII);
+        List<byte[]> partHeaders = new ArrayList<>();
+        long contentLength = 0;
+        for (ByteRegion region : regions){
+            byte[] partHeader = "\r\n--%s\r\nContent-Type: %s\r\nContent-Range: %s\r\n\r\n"
+                    .formatted(boundary, contentType, region.toContentRange(file.size()))
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + region.end() - region.start();
+        }
+        byte[] closingDelimiter = "\r\n--%s--\r\n".formatted(boundary).getBytes(StandardCharsets.US_ASCII);
+        contentLength += closingDelimiter.length;
+
+        response.setContentType("multipart/byteranges; boundary=%s".formatted(boundary));
+        response.setContentLengthLong(contentLength);
+        WritableByteChannel responseChannel = getResponseChannel(response);
+        for (int i = 0; i < regions.size(); i++){
+            writeFully(ByteBuffer.wrap(partHeaders.get(i)), responseChannel);
+            writeFileRegion(file, fileData, regions.get(i).start(), regions.get(i).end(), responseChannel);
+        }
+        writeFully(ByteBuffer.wrap(closingDelimiter), responseChannel);
+    }
+
+    /**
+     * The servlet api only accepts byte arrays, so a channel over a response's output stream has to copy
+     * everything written to it into a heap array first. Tomcat's own output stream accepts buffers, so when
+     * the response is backed by it the buffers are handed straight to it instead. The response is flushed
+     * first so wrappers, such as the one spring security adds its headers with, still see it being committed.
+     * Every other container falls back to copying through an array
+     * @param response The response to write to. Its headers must already be set
+     * @return A channel that writes to the response's body. Must not be closed
+     * @throws IOException If something goes wrong while flushing the response
+     */
+    private static WritableByteChannel getResponseChannel(HttpServletResponse response) throws IOException {
+        ServletResponse containerResponse = response;
+        while (containerResponse instanceof ServletResponseWrapper wrapper)
+            containerResponse = wrapper.getResponse();
+        if (!(containerResponse.getOutputStream() instanceof CoyoteOutputStream coyoteStream))
+            return Channels.newChannel(response.getOutputStream());
+
+        response.flushBuffer();
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                int remaining = src.remaining();
+                coyoteStream.write(src);
+                return remaining - src.remaining();
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    /**
+     * @param data The data to write
+     * @param channel The channel to write it to. Will not be closed
+     * @throws IOException If something goes wrong while writing
+     */
+    private static void writeFully(ByteBuffer data, WritableByteChannel channel) throws IOException {
+        while (data.hasRemaining())
+            channel.write(data);
+    }
+
+    /**
+     * Transfers a region of a file to a channel
+     * @param file The file to write
+     * @param fileData The file's entire contents, or null to read them from the file
+     * @param start The position of the first byte to write
+     * @param end The position after the last byte to write
+     * @param channel The channel to write to. Will not be closed
+     * @throws IOException If something goes wrong while writing, or if the file is shorter than expected
+     */
+    public static void writeFileRegion(StoredFile file, ByteBuffer fileData, long start, long end,
+                                       WritableByteChannel channel) throws IOException {
+        if (fileData != null){
+            if (end > fileData.capacity())
+                throw new IOException("File ended before the requested region could be transferred");
+            writeFully(fileData.duplicate().limit((int)end).position((int)start), channel);
+            return;
+        }
+        try(FileChannel fileChannel = FileChannel.open(file.path(), StandardOpenOption.READ)){
+            long position = start;
+            while (position < end){
+                long transferred = fileChannel.transferTo(position, end - position, channel);
+                if (transferred <= 0)
+                    throw new IOException("File ended before the requested region could be transferred");
+                position += transferred;
+            }
+        }
+    }
+
+    /**
+     * @param file The file to get the entity tag for
+     * @return A strong entity tag for the file's current contents
+     */
+    private static String getETag(StoredFile file){
+        return "\"%x-%x\"".formatted(file.size(), file.lastModifiedMillis());
+    }
+
+    /**
+     * A range may only be served if the client's copy of the file is still current
+     * @param request The request with the range
+     * @param file The file being requested
+     * @param eTag The file's entity tag
+     * @return True if there's no If-Range header or if it matches the file
+     */
+    private static boolean isIfRangeSatisfied(HttpServletRequest request, StoredFile file, String eTag){
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null)
+            return true;
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+            return ifRange.equals(eTag); // Weak tags can never match because If-Range requires a strong comparison
+        try{
+            return file.lastModifiedMillis() / 1000 <= request.getDateHeader(HttpHeaders.IF_RANGE) / 1000;
+        }catch (IllegalArgumentException e){
+            return false;
+        }
+    }
+
+    /**
+     * @param regions The regions to coalesce
+     * @return The regions ordered by where they start, with overlapping and adjacent regions merged together
+     */
+    private static List<ByteRegion> coalesceRegions(List<ByteRegion> regions){
+        List<ByteRegion> sortedRegions = new ArrayList<>(regions);
+        sortedRegions.sort(Comparator.comparingLong(ByteRegion::start));
+        List<ByteRegion> coalescedRegions = new ArrayList<>();
+        ByteRegion current = sortedRegions.get(0);
+        for (ByteRegion region : sortedRegions.subList(1, sortedRegions.size())){
+            if (region.start() <= current.end()){
+                current = new ByteRegion(current.start(), Math.max(current.end(), region.end()));
+                continue;
+            }
+            coalescedRegions.add(current);
+            current = region;
+        }
+        coalescedRegions.add(current);
+        return coalescedRegions;
+    }
+
+    /**
+     * @param start The position of the first byte in the region
+     * @param end The position after the last byte in the region
+     */
+    private record ByteRegion(long start, long end) {
+
+        /**
+         * @param size The size of the entire file
+         * @return The value of the content range header for this region
+         */
+        private String toContentRange(long size){
+            return "bytes %d-%d/%d".formatted(start, end - 1, size);
+        }
+
+    }
+
+}
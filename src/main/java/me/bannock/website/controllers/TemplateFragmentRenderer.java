@@ -0,0 +1,214 @@
+package me.bannock.website.controllers;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.ViewResolver;
+import org.springframework.web.servlet.support.RequestContextUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders templates, or fragments of them, into UTF-8 encoded bytes instead of straight into the response.
+ * This lets a page be put together from pieces that were rendered at different times. How long each
+ * template takes to render and how much memory it allocates are recorded, tagged by the template's name
+ */
+@Component
+public class TemplateFragmentRenderer {
+
+    @Autowired
+    public TemplateFragmentRenderer(@Qualifier("thymeleafViewResolver") ViewResolver viewResolver,
+                                    MeterRegistry meterRegistry){
+        this.viewResolver = viewResolver;
+        this.meterRegistry = meterRegistry;
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean allocationMXBean
+                && allocationMXBean.isThreadAllocatedMemorySupported()
+                && allocationMXBean.isThreadAllocatedMemoryEnabled()){
+            this.allocationMXBean = allocationMXBean;
+        }else{
+            logger.warn("Thread allocation measurement is not supported, " +
+                    "so template render allocations will not be recorded");
+            this.allocationMXBean = null;
+        }
+    }
+
+    private final Logger logger = LogManager.getLogger();
+    private final ViewResolver viewResolver;
+    private final MeterRegistry meterRegistry;
+    private final com.sun.management.ThreadMXBean allocationMXBean;
+
+    /**
+     * Renders a template using the current request
+     * @param viewName The name of the template, optionally followed by a fragment selector such as "blog/post :: comments"
+     * @param model The model to render the template with
+     * @param request The request the template is being rendered for
+     * @param response The response the template is being rendered for. Nothing is written to it
+     * @return The rendered template, encoded with UTF-8
+     * @throws Exception If the template could not be resolved or rendered
+     */
+    public byte[] render(String viewName, Map<String, ?> model,
+                         HttpServletRequest request, HttpServletResponse response) throws Exception {
+        Objects.requireNonNull(viewName);
+        View view = viewResolver.resolveViewName(viewName, RequestContextUtils.getLocale(request));
+        if (view == null)
+            throw new IllegalArgumentException("No template could be resolved, viewName=\"%s\"".formatted(viewName));
+
+        BufferedResponse bufferedResponse = new BufferedResponse(response);
+        long allocatedBytesBefore = getAllocatedBytes();
+        long renderStartNanos = System.nanoTime();
+        view.render(model, request, bufferedResponse);
+        long renderNanos = System.nanoTime() - renderStartNanos;
+        long allocatedBytesAfter = getAllocatedBytes();
+
+        Timer.builder("templates.render")
+                .tag("template", viewName)
+                .description("How long templates take to render")
+                .register(meterRegistry)
+                .record(renderNanos, TimeUnit.NANOSECONDS);
+        if (allocatedBytesBefore >= 0 && allocatedBytesAfter >= 0){
+            DistributionSummary.builder("templates.render.allocated")
+                    .tag("template", viewName)
+                    .description("How much memory templates allocate while rendering")
+                    .baseUnit("bytes")
+                    .register(meterRegistry)
+                    .record(allocatedBytesAfter - allocatedBytesBefore);
+        }
+        byte[] rendered = bufferedResponse.toByteArray();
+        logger.debug("Rendered template, viewName=\"{}\", renderTime={}us, size={}",
+                viewName, renderNanos / 1000, rendered.length);
+        return rendered;
+    }
+
+    /**
+     * @return The bytes the current thread has allocated so far, or -1 if it can't be measured,
+     * such as on virtual threads
+     */
+    private long getAllocatedBytes(){
+        if (allocationMXBean == null)
+            return -1;
+        return allocationMXBean.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Collects everything a view writes instead of sending it. Headers and the status are
+     * left alone, since the page being put together decides those
+     */
+    private static class BufferedResponse extends HttpServletResponseWrapper {
+
+        private BufferedResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private PrintWriter writer;
+        private ServletOutputStream outputStream;
+
+        @Override
+        public PrintWriter getWriter() {
+            if (writer == null)
+                writer = new PrintWriter(new OutputStreamWriter(buffer, StandardCharsets.UTF_8));
+            return writer;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            if (outputStream == null){
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    /**
+                     * Writing to the buffer never blocks, so the listener is told it can write straight away.
+                     * This happens before the view finishes rendering, so whatever it writes is still collected
+                     */
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        Objects.requireNonNull(writeListener);
+                        try {
+                            writeListener.onWritePossible();
+                        } catch (IOException | RuntimeException e) {
+                            writeListener.onError(e);
+                        }
+                    }
+
+                    @Override
+                    public void write(int b) {
+                        buffer.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        buffer.write(b, off, len);
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public void setContentType(String type) {}
+
+        @Override
+        public void setCharacterEncoding(String charset) {}
+
+        @Override
+        public String getCharacterEncoding() {
+            return StandardCharsets.UTF_8.name();
+        }
+
+        @Override
+        public void setContentLength(int len) {}
+
+        @Override
+        public void setContentLengthLong(long len) {}
+
+        @Override
+        public void flushBuffer() {
+            if (writer != null)
+                writer.flush();
+        }
+
+        @Override
+        public void resetBuffer() {
+            if (writer != null)
+                writer.flush();
+            buffer.reset();
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return false;
+        }
+
+        private byte[] toByteArray(){
+            if (writer != null)
+                writer.flush();
+            return buffer.toByteArray();
+        }
+
+    }
+
+}
@@ -3,36 +3,52 @@ package me.bannock.website.controllers.blog;
 import brave.Tracer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
 import jakarta.servlet.http.HttpServletResponse;
-import jakarta.servlet.http.HttpSession;
 import me.bannock.website.controllers.ControllerUtils;
+import me.bannock.website.controllers.FileTransferUtils;
+import me.bannock.website.controllers.TemplateFragmentRenderer;
 import me.bannock.website.security.Roles;
 import me.bannock.website.security.authentication.UserDetailsImpl;
-import me.bannock.website.services.blog.Asset;
+import me.bannock.website.services.blog.AssetView;
 import me.bannock.website.services.blog.BlogService;
 import me.bannock.website.services.blog.BlogServiceException;
 import me.bannock.website.services.blog.Comment;
+import me.bannock.website.services.blog.PageCursor;
 import me.bannock.website.services.blog.Post;
+import me.bannock.website.services.blog.PostView;
+import me.bannock.website.services.blog.StagedAsset;
+import me.bannock.website.services.blog.cache.CachedPostPage;
+import me.bannock.website.services.blog.cache.PostIndexCache;
+import me.bannock.website.services.blog.cache.PostPageCache;
+import me.bannock.website.services.storage.StoredFile;
+import me.bannock.website.services.storage.cache.HotFileCache;
 import me.bannock.website.services.user.User;
 import me.bannock.website.services.user.UserService;
 import me.bannock.website.services.user.UserServiceException;
+import org.apache.commons.fileupload2.core.DiskFileItem;
+import org.apache.commons.fileupload2.core.DiskFileItemFactory;
+import org.apache.commons.fileupload2.core.FileItemInput;
+import org.apache.commons.fileupload2.core.FileItemInputIterator;
+import org.apache.commons.fileupload2.core.FileUploadFileCountLimitException;
+import org.apache.commons.fileupload2.core.FileUploadSizeException;
+import org.apache.commons.fileupload2.jakarta.servlet6.JakartaServletFileUpload;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.overviewproject.mime_types.GetBytesException;
-import org.overviewproject.mime_types.MimeTypeDetector;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.annotation.Secured;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.security.web.csrf.CsrfToken;
+import org.springframework.security.web.csrf.CsrfTokenRequestHandler;
+import org.springframework.security.web.csrf.DeferredCsrfToken;
+import org.springframework.security.web.csrf.InvalidCsrfTokenException;
+import org.springframework.security.web.csrf.MissingCsrfTokenException;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -44,8 +60,8 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
-import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.View;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import org.springframework.web.servlet.view.RedirectView;
 
@@ -54,25 +70,39 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 
 @Controller
 @RequestMapping("/blog")
 public class BlogController {
 
     @Autowired
-    public BlogController(BlogService blogService, UserService userService){
+    public BlogController(BlogService blogService, UserService userService, PostIndexCache postIndexCache,
+                          HotFileCache hotFileCache, PostPageCache postPageCache,
+                          TemplateFragmentRenderer templateFragmentRenderer){
         this.blogService = blogService;
         this.userService = userService;
+        this.postIndexCache = postIndexCache;
+        this.hotFileCache = hotFileCache;
+        this.postPageCache = postPageCache;
+        this.templateFragmentRenderer = templateFragmentRenderer;
     }
 
     private final Logger logger = LogManager.getLogger();
     private final BlogService blogService;
     private final UserService userService;
+    private final PostIndexCache postIndexCache;
+    private final HotFileCache hotFileCache;
+    private final PostPageCache postPageCache;
+    private final TemplateFragmentRenderer templateFragmentRenderer;
 
     @Autowired
     private Tracer tracer;
@@ -80,36 +110,68 @@ public class BlogController {
     @Value("${bannock.blogController.indexCharsetName}")
     private String indexCharsetName;
 
+    @Value("${bannock.blogController.assetCacheControl}")
+    private String assetCacheControl;
+
+    /**
+     * The most bytes a single post upload may have, including every file in it
+     */
+    @Value("${bannock.blogController.maxPostUploadBytes}")
+    private long maxPostUploadBytes;
+
+    @Value("${bannock.blogController.maxPostUploadParts}")
+    private int maxPostUploadParts;
+
+    @Value("${bannock.blogController.maxPartHeaderBytes}")
+    private int maxPartHeaderBytes;
+
+    @Autowired
+    private CsrfTokenRequestHandler csrfTokenRequestHandler;
+
+    /**
+     * The most bytes a text field in the post form may have
+     */
+    private static final int MAX_FORM_FIELD_BYTES = 16384;
+
     @GetMapping("/")
-    public String index(@RequestParam(name = "page", required = false, defaultValue = "0") int page, Model model){
-        List<Post> featuredPosts = new ArrayList<>(blogService.getFeaturedPosts(page));
-
-        Authentication auth = ControllerUtils.getAuthNoAnon();
-        long loggedInUid = -1L;
-        if (auth != null){
-            try{
-                loggedInUid = userService.getUserWithName(auth.getName()).getId();
-            }catch (UserServiceException e){
-                logger.warn(e.getUserFriendlyError(), e);
-            }
+    public String index(@RequestParam(name = "page", required = false, defaultValue = "0") int page,
+                        @RequestParam(name = "after", required = false) String afterCursor,
+                        @RequestParam(name = "before", required = false) String beforeCursor,
+                        Model model){
+        List<Post> featuredPosts;
+        try{
+            if (afterCursor != null)
+                featuredPosts = new ArrayList<>(blogService.getFeaturedPostsAfter(PageCursor.decode(afterCursor)));
+            else if (beforeCursor != null)
+                featuredPosts = new ArrayList<>(blogService.getFeaturedPostsBefore(PageCursor.decode(beforeCursor)));
+            else
+                featuredPosts = new ArrayList<>(blogService.getFeaturedPosts(page));
+        }catch (BlogServiceException e){
+            logger.warn("Something went wrong while getting featured posts, page={}, afterCursor={}, beforeCursor={}",
+                    page, afterCursor, beforeCursor, e);
+            throw new WrappedBlogServiceException(e, model);
         }
-        Map<Long, User> uidToAuthorsMappings = new HashMap<>();
+        if (!featuredPosts.isEmpty()){
+            model.addAttribute("previousPageCursor", PageCursor.of(featuredPosts.get(0)).encode());
+            model.addAttribute("nextPageCursor", PageCursor.of(featuredPosts.get(featuredPosts.size() - 1)).encode());
+        }
+
+        long loggedInUid = ControllerUtils.getLoggedInUser().map(UserDetailsImpl::getUserId).orElse(-1L);
+        Map<Long, User> uidToAuthorsMappings = userService.getManyUsersMappedByIds(
+                featuredPosts.stream().map(Post::authorId).toList());
         List<Post> postsToRemove = new ArrayList<>();
         for (Post post : featuredPosts){
-            if (uidToAuthorsMappings.containsKey(post.authorId()))
-                continue;
-            try {
-                User author = userService.getUserWithId(post.authorId());
-                if (author.getId() != loggedInUid && author.isShadowBanned()){
-                    logger.warn("Removing post from page because the author is shadow banned, postId={}, author={}",
-                            post.postId(), author);
-                    postsToRemove.add(post);
-                    continue;
-                }
-                uidToAuthorsMappings.put(post.authorId(), author);
-            } catch (UserServiceException e) {
-                throw new WrappedBlogServiceException(
-                        new BlogServiceException(e.getUserFriendlyError(), e.getMessage()), model);
+            User author = uidToAuthorsMappings.get(post.authorId());
+            if (author == null){
+                logger.warn("Could not find author for featured post, postId={}, authorId={}",
+                        post.postId(), post.authorId());
+                throw new WrappedBlogServiceException(new BlogServiceException("No user with that id exists.",
+                        "Id \"%s\" does not exist".formatted(post.authorId())), model);
+            }
+            if (author.getId() != loggedInUid && author.isShadowBanned()){
+                logger.warn("Removing post from page because the author is shadow banned, postId={}, author={}",
+                        post.postId(), author);
+                postsToRemove.add(post);
             }
         }
         featuredPosts.removeAll(postsToRemove);
@@ -130,23 +192,35 @@ public class BlogController {
     }
 
     @GetMapping("/{postId}/")
-    public String getPost(@PathVariable(name = "postId") long postId,
-                          @RequestParam(name = "commentPage", required = false, defaultValue = "-1") int commentPage,
-                          @ModelAttribute(name = "commentFormPojo") CommentFormPojo commentForm,
-                          Model model){
-        String indexData;
-        Post post;
-        try(InputStream postIndexStream = blogService.getIndex(postId)){
-            post = blogService.getPost(postId);
-            if (post.deleted()){
-                logger.warn("Could not get post because it has been deleted, postId={}", postId);
-                throw new WrappedBlogServiceException(new BlogServiceException(
-                        "Can not get post because it has been deleted", "Post has been deleted"), model);
+    public View getPost(@PathVariable(name = "postId") long postId,
+                        @RequestParam(name = "commentPage", required = false, defaultValue = "-1") int commentPage,
+                        @RequestParam(name = "commentsAfter", required = false) String commentsAfterCursor,
+                        @RequestParam(name = "commentsBefore", required = false) String commentsBeforeCursor,
+                        @ModelAttribute(name = "commentFormPojo") CommentFormPojo commentForm,
+                        Model model){
+        String indexData = null;
+        PostView postView;
+        CachedPostPage cachedPage;
+        try{
+            postView = blogService.getPostView(postId, commentPage,
+                    commentsAfterCursor == null ? null : PageCursor.decode(commentsAfterCursor),
+                    commentsBeforeCursor == null ? null : PageCursor.decode(commentsBeforeCursor));
+
+            // The index is already part of the cached page, so it only needs to be read to render a new one
+            cachedPage = postPageCache.get(postId).orElse(null);
+            Optional<String> cachedIndexData = cachedPage == null ? postIndexCache.get(postId) : Optional.empty();
+            if (cachedPage != null){
+                logger.debug("Using cached post page, postId={}", postId);
+            }else if (cachedIndexData.isPresent()){
+                indexData = cachedIndexData.get();
+            }else{
+                try(InputStream postIndexStream = blogService.getIndex(postId)){
+                    indexData = new String(getBytesFromInputStream(postIndexStream), Charset.forName(indexCharsetName));
+                }
+                postIndexCache.put(postId, indexData);
             }
-
-            indexData = new String(getBytesFromInputStream(postIndexStream), Charset.forName(indexCharsetName));
         }catch (BlogServiceException e) {
-            logger.warn("Something went wrong while fetching post index, requestedPostId={}", postId, e);
+            logger.warn("Something went wrong while fetching post, requestedPostId={}", postId, e);
             throw new WrappedBlogServiceException(e, model);
         }catch (IOException e) {
             logger.error("Something went wrong while reading index input stream, postId={}", postId, e);
@@ -156,31 +230,18 @@ public class BlogController {
                     "This may cause the page to display incorrect characters", e);
             throw new RuntimeException(e);
         }
+        Post post = postView.post();
+        User author = postView.author();
 
-        Authentication auth = ControllerUtils.getAuthNoAnon();
-        long loggedInUid = -1L;
-        if (auth != null){
-            try{
-                loggedInUid = userService.getUserWithName(auth.getName()).getId();
-            }catch (UserServiceException e){
-                logger.warn("Something went wrong while getting logged in user id", e);
-            }
-        }
-        User author;
-        try {
-            author = userService.getUserWithId(post.authorId());
-            if (loggedInUid != author.getId() && author.isShadowBanned()){
-                logger.warn("Could not get post because the author is shadow banned, postId={}, author={}",
-                        postId, author);
-                throw new WrappedBlogServiceException(
-                        new BlogServiceException(
-                                "Something went wrong while getting the post",
-                                "Could not access post because the author is shadow banned"),
-                        model);
-            }
-        } catch (UserServiceException e) {
-            logger.warn("Something went wrong while finding post author, authorId={}, post={}", post.authorId(), post);
-            throw new RuntimeException(e);
+        long loggedInUid = ControllerUtils.getLoggedInUser().map(UserDetailsImpl::getUserId).orElse(-1L);
+        if (loggedInUid != author.getId() && author.isShadowBanned()){
+            logger.warn("Could not get post because the author is shadow banned, postId={}, author={}",
+                    postId, author);
+            throw new WrappedBlogServiceException(
+                    new BlogServiceException(
+                            "Something went wrong while getting the post",
+                            "Could not access post because the author is shadow banned"),
+                    model);
         }
 
         logger.info("User requested index for post, postId={}", postId);
@@ -189,75 +250,65 @@ public class BlogController {
         model.addAttribute("author", author);
         model.addAttribute("postIndex", indexData);
 
-        try {
-            int lastCommentPage = blogService.getCommentsTotalPages(postId) - 1;
-            if (commentPage < 0)
-                commentPage = lastCommentPage;
-            commentPage = Math.max(0, commentPage);
-            List<Comment> comments = blogService.getComments(postId, commentPage);
-
-            List<Long> commentAuthorIds = new ArrayList<>();
-            comments.forEach(comment -> commentAuthorIds.add(comment.authorId()));
-            List<User> commentAuthors = userService.getManyUsersWithIds(commentAuthorIds);
-            Map<Long, User> uidToUserMappings = new HashMap<>();
-            commentAuthors.forEach(user -> uidToUserMappings.put(user.getId(), user));
-
-            List<Comment> filteredComments = new ArrayList<>();
-            for (Comment comment : comments){
-                if (!uidToUserMappings.containsKey(comment.authorId())){
-                    logger.warn("Excluded comment from the post comments because their author could not be found, " +
-                            "commentAuthorId={}, postId={}", comment.authorId(), postId);
-                    continue;
-                }
-                User commentAuthor = uidToUserMappings.get(comment.authorId());
-                if (loggedInUid != commentAuthor.getId() && commentAuthor.isShadowBanned()){
-                    logger.warn("Excluded comment from the post comments because the the comment's " +
-                            "author is shadow banned commentAuthorId={}, postId={}", comment.authorId(), postId);
-                    continue;
-                }
-                filteredComments.add(comment);
+        Map<Long, User> uidToUserMappings = postView.commentAuthors();
+        List<Comment> filteredComments = new ArrayList<>();
+        for (Comment comment : postView.comments()){
+            if (!uidToUserMappings.containsKey(comment.authorId())){
+                logger.warn("Excluded comment from the post comments because their author could not be found, " +
+                        "commentAuthorId={}, postId={}", comment.authorId(), postId);
+                continue;
             }
-
-            model.addAttribute("comments", filteredComments);
-            model.addAttribute("commentAuthorIdsToUserMappings", uidToUserMappings);
-            model.addAttribute("currentCommentPage", commentPage);
-            model.addAttribute("lastCommentPage", lastCommentPage);
-            if (!model.containsAttribute("commentFormPojo")){
-                CommentFormPojo commentFormPojo = new CommentFormPojo();
-                commentFormPojo.setPostId(postId);
-                model.addAttribute("commentFormPojo", commentFormPojo);
+            User commentAuthor = uidToUserMappings.get(comment.authorId());
+            if (loggedInUid != commentAuthor.getId() && commentAuthor.isShadowBanned()){
+                logger.warn("Excluded comment from the post comments because the the comment's " +
+                        "author is shadow banned commentAuthorId={}, postId={}", comment.authorId(), postId);
+                continue;
             }
-        } catch (BlogServiceException e) {
-            logger.warn("Something went wrong while attempting to get blog post comments, post={}", post, e);
-            throw new WrappedBlogServiceException(e, model);
+            filteredComments.add(comment);
+        }
+
+        model.addAttribute("comments", filteredComments);
+        model.addAttribute("commentAuthorIdsToUserMappings", uidToUserMappings);
+        model.addAttribute("currentCommentPage", postView.commentPage());
+        model.addAttribute("lastCommentPage", postView.totalCommentPages() - 1);
+        model.addAttribute("newerCommentsCursor", postView.newerCommentsCursor() == null ?
+                null : postView.newerCommentsCursor().encode());
+        model.addAttribute("olderCommentsCursor", postView.olderCommentsCursor() == null ?
+                null : postView.olderCommentsCursor().encode());
+        if (!model.containsAttribute("commentFormPojo")){
+            CommentFormPojo commentFormPojo = new CommentFormPojo();
+            commentFormPojo.setPostId(postId);
+            model.addAttribute("commentFormPojo", commentFormPojo);
         }
 
         StringBuilder seoKeywordsBuilder = new StringBuilder();
         Arrays.stream(post.tags()).forEachOrdered(tag -> seoKeywordsBuilder.append(", ").append(tag));
         model.addAttribute("seoKeywords", seoKeywordsBuilder.substring(2));
-        return "blog/post";
+        return new PostPageView(postId, cachedPage, postPageCache, templateFragmentRenderer);
     }
 
     @GetMapping(value = "/{postId}/{assetName}")
-    @ResponseBody
-    public ResponseEntity<?> getPostAsset(@PathVariable(value = "postId") long postId,
-                                          @PathVariable(value = "assetName") String assetName,
-                                          HttpServletResponse response, Model model) throws GetBytesException {
+    public void getPostAsset(@PathVariable(value = "postId") long postId,
+                             @PathVariable(value = "assetName") String assetName,
+                             HttpServletRequest request, HttpServletResponse response,
+                             Model model) throws IOException {
         try{
-            Post post = blogService.getPost(postId);
-            if (post.deleted())
-                throw new WrappedBlogServiceException(
-                        new BlogServiceException("Can not get asset because the post has been deleted"), model);
-
-            InputStream postAssetStream = blogService.getAsset(postId, assetName);
-            String contentType = new MimeTypeDetector().detectMimeType(assetName, postAssetStream);
-            response.setContentType(contentType);
+            AssetView assetView = blogService.getAssetView(postId, assetName);
+            StoredFile assetFile = assetView.file();
+            String contentType = assetView.mimeType();
+            Optional<StoredFile> gzippedAssetFile = assetView.getGzippedFile();
+            if (gzippedAssetFile.isPresent()){
+                response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                if (FileTransferUtils.isEncodingAccepted(request, "gzip")){
+                    assetFile = gzippedAssetFile.get();
+                    response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+                }
+            }
             logger.info("Using mime type {} for request, postId={}, assetName={}", contentType, postId, assetName);
             logger.info("User requested asset for post, postId={}, assetName={}", postId, assetName);
-            return ResponseEntity.ok()
-                    .header("Content-Disposition", "; filename=\"%s\"".formatted(assetName))
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .body(new InputStreamResource(postAssetStream));
+            response.setHeader("Content-Disposition", "; filename=\"%s\"".formatted(assetName));
+            FileTransferUtils.serveFile(assetFile, hotFileCache.get(assetFile).orElse(null),
+                    contentType, assetCacheControl, request, response);
         }catch (BlogServiceException e) {
             logger.warn("Something went wrong while fetching post asset, requestedPostId={}, assetName={}",
                     postId, assetName, e);
@@ -275,47 +326,85 @@ public class BlogController {
 
     @PostMapping("/makePost")
     @Secured(Roles.BlogServiceRoles.MAKE_POSTS)
-    public void postMakePost(HttpServletRequest request, HttpServletResponse response,
-                             @ModelAttribute PostFormPojo postForm, Model model){
-        String[] splitTags = postForm.getTags().split(",");
-        for (int i = 0; i < splitTags.length; i++)
-            splitTags[i] = splitTags[i].trim();
+    public void postMakePost(HttpServletRequest request, HttpServletResponse response, Model model){
+        Optional<UserDetailsImpl> author = ControllerUtils.getLoggedInUser();
+        if (author.isEmpty()){
+            logger.warn("User attempted to make post but was not authenticated, remoteIp={}", request.getRemoteAddr());
+            throw new RuntimeException("You must be authorized to make this request");
+        }
+        if (author.get().isAccountDisabled()){
+            logger.warn("User could not make blog post because their account is disabled, author={}", author.get());
+            throw new WrappedBlogServiceException(new BlogServiceException(
+                    "Could not make post because your account is disabled"), model);
+        }
+        long authorId = author.get().getUserId();
+        if (!JakartaServletFileUpload.isMultipartContent(request)){
+            logger.warn("User attempted to make post without a multipart request, authorId={}", authorId);
+            throw new WrappedBlogServiceException(new BlogServiceException(
+                    "Posts must be submitted using the post form"), model);
+        }
 
-        Asset indexAsset;
-        List<Asset> postAssets = new ArrayList<>();
+        // Each file is streamed into storage as it's read from the request instead of
+        // being buffered by the servlet container first
+        Map<String, String> formFields = new HashMap<>();
+        StagedAsset indexAsset = null;
+        List<StagedAsset> postAssets = new ArrayList<>();
+        JakartaServletFileUpload<DiskFileItem, DiskFileItemFactory> upload = new JakartaServletFileUpload<>();
+        upload.setMaxSize(maxPostUploadBytes);
+        upload.setMaxPartHeaderSize(maxPartHeaderBytes);
         try{
-            indexAsset = new Asset(postForm.getIndex().getOriginalFilename(), postForm.getIndex().getInputStream());
-            for (MultipartFile asset : postForm.getAssets()){
-                postAssets.add(new Asset(asset.getOriginalFilename(), asset.getInputStream()));
+            FileItemInputIterator items = upload.getItemIterator(request);
+            int parts = 0;
+            while (items.hasNext()){
+                FileItemInput item = items.next();
+                // The file count limit is only enforced when a whole request is parsed at once, not while streaming
+                if (++parts > maxPostUploadParts)
+                    throw new FileUploadFileCountLimitException("Post upload has too many parts",
+                            maxPostUploadParts, parts);
+                try(InputStream itemStream = item.getInputStream()){
+                    // The token comes first in the form, so it's checked before any files are stored
+                    if (parts == 1){
+                        checkStreamedCsrfToken(request, item, itemStream);
+                        continue;
+                    }
+                    if (item.isFormField()){
+                        formFields.put(item.getFieldName(), readFormField(itemStream, item.getFieldName(), request));
+                        continue;
+                    }
+                    String fileName = Objects.requireNonNullElse(item.getName(), "");
+                    if (item.getFieldName().equals("index") && indexAsset == null){
+                        indexAsset = blogService.stageAsset(fileName, itemStream);
+                    }else if (item.getFieldName().equals("assets") && !fileName.isEmpty()){
+                        postAssets.add(blogService.stageAsset(fileName, itemStream));
+                    }
+                }
             }
+            if (indexAsset == null)
+                throw new BlogServiceException("Please select an index file for the post");
+        } catch (FileUploadSizeException e) {
+            discardUploads(indexAsset, postAssets);
+            throw new WrappedBlogServiceException(getUploadLimitError(e, authorId), model);
         } catch (IOException e) {
-            logger.warn("User attempted to upload file but something went wrong", e);
+            discardUploads(indexAsset, postAssets);
+            logger.warn("User attempted to upload file but something went wrong, authorId={}", authorId, e);
             throw new WrappedBlogServiceException(
                     new BlogServiceException("Something went wrong while uploading files"), model);
+        } catch (BlogServiceException e) {
+            discardUploads(indexAsset, postAssets);
+            // Limits can also be hit while a file is being staged, since that's when its part is read
+            if (e.getCause() instanceof FileUploadSizeException sizeException)
+                throw new WrappedBlogServiceException(getUploadLimitError(sizeException, authorId), model);
+            logger.warn("Something went wrong while uploading new blog post, authorId={}", authorId, e);
+            throw new WrappedBlogServiceException(e, model);
         }
 
-        Authentication auth = ControllerUtils.getAuthNoAnon();
-        if (auth == null){
-            logger.warn("User attempted to make post but was not authenticated, " +
-                    "postForm={}, remoteIp={}", postForm, request.getRemoteAddr());
-            throw new RuntimeException("You must be authorized to make this request");
-        }
-        long authorId;
-        try {
-            User author = userService.getUserWithName(auth.getName());
-            if (author.isAccountDisabled()){
-                logger.warn("User could not make blog post because their account is disabled, author={}", author);
-                throw new WrappedBlogServiceException(new BlogServiceException(
-                        "Could not make post because your account is disabled"), model);
-            }
-            authorId = author.getId();
-        } catch (UserServiceException e) {
-            throw new RuntimeException(e);
-        }
+        String[] splitTags = formFields.getOrDefault("tags", "").split(",");
+        for (int i = 0; i < splitTags.length; i++)
+            splitTags[i] = splitTags[i].trim();
 
         try {
-            Post post = blogService.makePost(postForm.getTitleHtml(), postForm.getTitlePlaintext(), authorId, splitTags,
-                    indexAsset, postAssets.toArray(new Asset[0]));
+            Post post = blogService.makePost(formFields.getOrDefault("titleHtml", ""),
+                    formFields.getOrDefault("titlePlaintext", ""), authorId, splitTags, indexAsset, postAssets);
             logger.info("User created new blog post, authorId={}, postId={}", authorId, post.postId());
             response.sendRedirect("%s/".formatted(post.postId()));
         } catch (BlogServiceException e) {
@@ -326,6 +415,87 @@ public class BlogController {
         }
     }
 
+    /**
+     * Checks the csrf token sent as the first part of a streamed upload. Spring Security can't check it
+     * before the request gets here without reading the whole upload
+     * @param request The upload request
+     * @param item The first part of the upload
+     * @param itemStream The part's data
+     * @throws IOException If something goes wrong while reading the part
+     * @throws MissingCsrfTokenException If the first part isn't the csrf token
+     * @throws InvalidCsrfTokenException If the token doesn't match the one expected for the request
+     */
+    private void checkStreamedCsrfToken(HttpServletRequest request, FileItemInput item,
+                                        InputStream itemStream) throws IOException {
+        // The unmasked token, which is what submitted tokens are checked against
+        DeferredCsrfToken deferredCsrfToken = (DeferredCsrfToken) request.getAttribute(DeferredCsrfToken.class.getName());
+        CsrfToken csrfToken = deferredCsrfToken == null ? null : deferredCsrfToken.get();
+        if (csrfToken == null || !item.isFormField() || !item.getFieldName().equals(csrfToken.getParameterName())){
+            logger.warn("Post upload did not start with a csrf token, remoteIp={}", request.getRemoteAddr());
+            throw new MissingCsrfTokenException(null);
+        }
+        String submittedToken = readFormField(itemStream, item.getFieldName(), request);
+
+        // Read through the request handler so masked tokens are decoded the same way Spring Security does
+        String actualToken = csrfTokenRequestHandler.resolveCsrfTokenValue(new HttpServletRequestWrapper(request){
+            @Override
+            public String getParameter(String name) {
+                return name.equals(csrfToken.getParameterName()) ? submittedToken : super.getParameter(name);
+            }
+        }, csrfToken);
+        if (actualToken == null || !MessageDigest.isEqual(csrfToken.getToken().getBytes(StandardCharsets.UTF_8),
+                actualToken.getBytes(StandardCharsets.UTF_8))){
+            logger.warn("Post upload had an invalid csrf token, remoteIp={}", request.getRemoteAddr());
+            throw new InvalidCsrfTokenException(csrfToken, actualToken);
+        }
+    }
+
+    /**
+     * @param e The exception thrown when the upload went over a limit
+     * @param authorId The id of the user that made the upload
+     * @return An error telling the user which limit their upload went over
+     */
+    private BlogServiceException getUploadLimitError(FileUploadSizeException e, long authorId){
+        logger.info("User attempted to upload a post over the limit, authorId={}, permitted={}, actual={}",
+                authorId, e.getPermitted(), e.getActualSize());
+        if (e instanceof FileUploadFileCountLimitException)
+            return new BlogServiceException("Your upload must not have more than %s files".formatted(e.getPermitted()));
+        // The part header limit is reported with the same exception as the size limit
+        if (e.getPermitted() == maxPartHeaderBytes)
+            return new BlogServiceException("File names in your upload must not be longer than %s bytes"
+                    .formatted(maxPartHeaderBytes));
+        return new BlogServiceException("Your upload must not be larger than %s bytes".formatted(maxPostUploadBytes));
+    }
+
+    /**
+     * Reads a small text field from a multipart request
+     * @param fieldStream The field's data
+     * @param fieldName The name of the field
+     * @param request The request the field is from
+     * @return The field's value
+     * @throws IOException If the field is too large or something goes wrong while reading it
+     */
+    private String readFormField(InputStream fieldStream, String fieldName, HttpServletRequest request) throws IOException {
+        byte[] fieldBytes = fieldStream.readNBytes(MAX_FORM_FIELD_BYTES + 1);
+        if (fieldBytes.length > MAX_FORM_FIELD_BYTES)
+            throw new IOException("Form field \"%s\" is larger than %s bytes".formatted(fieldName, MAX_FORM_FIELD_BYTES));
+        Charset charset = request.getCharacterEncoding() == null ?
+                StandardCharsets.UTF_8 : Charset.forName(request.getCharacterEncoding());
+        return new String(fieldBytes, charset);
+    }
+
+    /**
+     * Deletes files from a post upload that failed
+     * @param indexAsset The staged index, or null if it wasn't staged
+     * @param postAssets The staged assets
+     */
+    private void discardUploads(StagedAsset indexAsset, List<StagedAsset> postAssets){
+        List<StagedAsset> stagedAssets = new ArrayList<>(postAssets);
+        if (indexAsset != null)
+            stagedAssets.add(indexAsset);
+        blogService.discardStagedAssets(stagedAssets);
+    }
+
     @PostMapping("/deletePost")
     public void postDeletePost(HttpServletResponse response, @RequestParam(value = "postId") long postId, Model model) throws IOException {
         try {
@@ -343,7 +513,7 @@ public class BlogController {
     public void postMakeComment(HttpServletResponse response, HttpServletRequest request,
                                 @ModelAttribute CommentFormPojo commentForm, Model model)
             throws IOException, CommentFormException {
-        long authorId = getAuthorForNewComment(request.getSession(true), request.getRemoteAddr(),
+        long authorId = getAuthorForNewComment(request, request.getRemoteAddr(),
                 model, commentForm);
         Comment comment;
         try {
@@ -358,27 +528,22 @@ public class BlogController {
 
     /**
      * Gets or creates the user account needed to post a comment and returns their id
+     * @param request The request the comment was submitted with
      * @param commentForm The submitted comment form
      * @param authorIp The comment author's ip address
      * @param model The model
      * @return The author's user account id
      * @throws CommentFormException If something goes wrong while getting or creating the author's account
      */
-    private long getAuthorForNewComment(HttpSession session, String authorIp, Model model, CommentFormPojo commentForm) throws CommentFormException{
-        Authentication auth = ControllerUtils.getAuthNoAnon();
-        if (auth != null && auth.isAuthenticated()){
-            try{
-                User user = userService.getUserWithName(auth.getName());
-                if (user.isAccountDisabled()){
-                    throw new CommentFormException("Could not post comment because your account is disabled",
-                            "Could not post comment because the user's account is disabled",
-                            model, commentForm);
-                }
-                return user.getId();
-            }catch (UserServiceException e){
-                logger.warn("Failed to get user account using session for comment, " +
-                        "one may be created later in the flow", e);
+    private long getAuthorForNewComment(HttpServletRequest request, String authorIp, Model model, CommentFormPojo commentForm) throws CommentFormException{
+        Optional<UserDetailsImpl> loggedInUser = ControllerUtils.getLoggedInUser();
+        if (loggedInUser.isPresent()){
+            if (loggedInUser.get().isAccountDisabled()){
+                throw new CommentFormException("Could not post comment because your account is disabled",
+                        "Could not post comment because the user's account is disabled",
+                        model, commentForm);
             }
+            return loggedInUser.get().getUserId();
         }
 
         User user = null;
@@ -426,11 +591,11 @@ public class BlogController {
             throw new CommentFormException("Failed to create user to post comment with. Please try again later.", "Something went wrong",
                     model, commentForm);
         }
-        Authentication newAuth = new UsernamePasswordAuthenticationToken(new UserDetailsImpl(user), user.getPassword(),
-                user.getRoles().stream().map(SimpleGrantedAuthority::new).toList());
+        Authentication newAuth = new UserDetailsImpl(user).toAuthentication();
         SecurityContext securityContext = SecurityContextHolder.getContext();
         securityContext.setAuthentication(newAuth);
-        session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, securityContext);
+        // Anonymous users don't have a session until now
+        request.getSession(true).setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, securityContext);
         logger.info("Logged user into dummy account, user={}, commentForm={}", user, commentForm);
         return user.getId();
     }
@@ -0,0 +1,105 @@
+package me.bannock.website.controllers.blog;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import me.bannock.website.controllers.TemplateFragmentRenderer;
+import me.bannock.website.services.blog.cache.CachedPostPage;
+import me.bannock.website.services.blog.cache.PostPageCache;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.web.servlet.View;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Puts a post's page together from the parts that are the same for every visitor, which are rendered once
+ * and cached, and the headers and comments, which are rendered for each request. The template's fragments
+ * are written in the same order they appear in the template, so the page is the same as rendering it whole
+ */
+class PostPageView implements View {
+
+    /**
+     * @param postId The id of the post
+     * @param cachedPage The post's cached page, or null if the model has everything needed to render it
+     * @param postPageCache The cache to store newly rendered pages in
+     * @param renderer Used to render the template's fragments
+     */
+    PostPageView(long postId, CachedPostPage cachedPage, PostPageCache postPageCache,
+                 TemplateFragmentRenderer renderer){
+        this.postId = postId;
+        this.cachedPage = cachedPage;
+        this.postPageCache = Objects.requireNonNull(postPageCache);
+        this.renderer = Objects.requireNonNull(renderer);
+    }
+
+    private final Logger logger = LogManager.getLogger();
+    private final long postId;
+    private final CachedPostPage cachedPage;
+    private final PostPageCache postPageCache;
+    private final TemplateFragmentRenderer renderer;
+
+    private static final String TEMPLATE = "blog/post";
+    private static final byte[] DOCUMENT_START = "<!DOCTYPE html>\n<html lang=\"en\">\n"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BODY_START = "\n<body>\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DOCUMENT_END = "\n</body>\n</html>".getBytes(StandardCharsets.UTF_8);
+
+    @Override
+    public String getContentType() {
+        return "text/html;charset=UTF-8";
+    }
+
+    @Override
+    public void render(Map<String, ?> model, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        CachedPostPage page = cachedPage;
+        if (page == null){
+            page = new CachedPostPage(
+                    concat(DOCUMENT_START, renderFragment("postHead", model, request, response), BODY_START),
+                    renderFragment("postContent", model, request, response),
+                    concat(renderFragment("pageFooters", model, request, response), DOCUMENT_END));
+            postPageCache.put(postId, page);
+            logger.info("Cached rendered post page, postId={}, size={}", postId, page.size());
+        }
+
+        byte[] headers = renderFragment("pageHeaders", model, request, response);
+        byte[] comments = renderFragment("comments", model, request, response);
+
+        response.setContentType(getContentType());
+        response.setContentLengthLong(page.size() + headers.length + comments.length);
+        OutputStream out = response.getOutputStream();
+        out.write(page.beforeHeaders());
+        out.write(headers);
+        out.write(page.postContent());
+        out.write(comments);
+        out.write(page.afterComments());
+    }
+
+    /**
+     * @param fragment The name of the fragment in the post template
+     * @param model The model to render the fragment with
+     * @param request The request the page is being rendered for
+     * @param response The response the page is being rendered for
+     * @return The rendered fragment
+     * @throws Exception If something goes wrong while rendering the fragment
+     */
+    private byte[] renderFragment(String fragment, Map<String, ?> model,
+                                  HttpServletRequest request, HttpServletResponse response) throws Exception {
+        return renderer.render("%s :: %s".formatted(TEMPLATE, fragment), model, request, response);
+    }
+
+    /**
+     * @param parts The byte arrays to join
+     * @return The byte arrays joined in order
+     */
+    private static byte[] concat(byte[]... parts){
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (byte[] part : parts)
+            joined.writeBytes(part);
+        return joined.toByteArray();
+    }
+
+}
@@ -0,0 +1,203 @@
+package me.bannock.website.logging;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands events to its attached appenders on a background thread so that slow appenders, such as ones
+ * that send logs over the network, never hold up the thread that logged. Events wait in a bounded
+ * queue; once it's full, events are dropped according to the overflow policy instead of blocking.
+ * The amount of queued and dropped events are exported as metrics, tagged with the appender's name
+ */
+public class NonBlockingAsyncAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
+        implements AppenderAttachable<ILoggingEvent> {
+
+    private final AppenderAttachableImpl<ILoggingEvent> appenders = new AppenderAttachableImpl<>();
+    private BlockingQueue<ILoggingEvent> queue;
+    private Thread worker;
+    private Gauge queuedEvents;
+    private Counter droppedEvents;
+
+    private int queueSize = 8192;
+    private int maxDrainSize = 256;
+    private long maxFlushTimeMillis = 5000;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
+    @Override
+    public void start() {
+        if (isStarted())
+            return;
+        if (queueSize < 1){
+            addError("Queue size must be at least 1, queueSize=%s".formatted(queueSize));
+            return;
+        }
+        if (!appenders.iteratorForAppenders().hasNext()){
+            addError("No appenders are attached to \"%s\"".formatted(getName()));
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(queueSize);
+        queuedEvents = Gauge.builder("logging.async.queued", queue, BlockingQueue::size)
+                .description("Log events waiting to be handed to the appenders")
+                .tag("appender", String.valueOf(getName()))
+                .register(Metrics.globalRegistry);
+        droppedEvents = Counter.builder("logging.async.dropped")
+                .description("Log events dropped because the queue was full")
+                .tag("appender", String.valueOf(getName()))
+                .register(Metrics.globalRegistry);
+
+        worker = new Thread(this::drainQueue, "AsyncAppender-%s".formatted(getName()));
+        worker.setDaemon(true);
+        super.start();
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted())
+            return;
+        super.stop();
+        worker.interrupt();
+        try {
+            worker.join(maxFlushTimeMillis);
+            if (worker.isAlive())
+                addWarn("Gave up flushing queued events after %sms, queuedEvents=%s"
+                        .formatted(maxFlushTimeMillis, queue.size()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        appenders.detachAndStopAllAppenders();
+        // Logging may be reconfigured, and a new queue must not be hidden behind these meters
+        Metrics.globalRegistry.remove(queuedEvents);
+        Metrics.globalRegistry.remove(droppedEvents);
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        // Anything computed lazily from thread local state must be captured before changing threads
+        event.prepareForDeferredProcessing();
+        if (queue.offer(event))
+            return;
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST){
+            queue.poll();
+            droppedEvents.increment();
+            if (queue.offer(event))
+                return;
+        }
+        droppedEvents.increment();
+    }
+
+    /**
+     * Hands queued events to the attached appenders until stopped, then flushes whatever's left
+     */
+    private void drainQueue(){
+        List<ILoggingEvent> events = new ArrayList<>(maxDrainSize);
+        while (isStarted()){
+            try {
+                events.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(events, maxDrainSize - 1);
+            appendAll(events);
+        }
+        while (queue.drainTo(events, maxDrainSize) > 0)
+            appendAll(events);
+    }
+
+    /**
+     * @param events The events to pass to the attached appenders; cleared afterward
+     */
+    private void appendAll(List<ILoggingEvent> events){
+        for (ILoggingEvent event : events)
+            appenders.appendLoopOnAppenders(event);
+        events.clear();
+    }
+
+    /**
+     * @param queueSize The most events that may wait to be handed to the attached appenders
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * @param maxDrainSize The most events taken from the queue at once
+     */
+    public void setMaxDrainSize(int maxDrainSize) {
+        this.maxDrainSize = Math.max(1, maxDrainSize);
+    }
+
+    /**
+     * @param maxFlushTimeMillis The longest to wait for queued events to be appended when stopping
+     */
+    public void setMaxFlushTimeMillis(long maxFlushTimeMillis) {
+        this.maxFlushTimeMillis = maxFlushTimeMillis;
+    }
+
+    /**
+     * @param overflowPolicy Which events are dropped when the queue is full
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> newAppender) {
+        appenders.addAppender(newAppender);
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return appenders.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String name) {
+        return appenders.getAppender(name);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return appenders.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return appenders.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String name) {
+        return appenders.detachAppender(name);
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * Drops the event being logged, keeping the events that are already queued
+         */
+        DROP_NEWEST,
+        /**
+         * Drops the oldest queued event to make room for the event being logged
+         */
+        DROP_OLDEST
+    }
+
+}
@@ -0,0 +1,173 @@
+package me.bannock.website.models.header;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The header puts its links in random positions. Placing them is too slow to do on every request, so a pool
+ * of layouts is made for each set of links and a random one is picked whenever the header is rendered.
+ * The pools are remade in the background so the layouts keep changing. Only used by the header template,
+ * so requests that don't render the header don't pay for it
+ */
+@Component("headerLayouts")
+public class HeaderLayouts {
+
+    @Autowired
+    public HeaderLayouts(@Value("${bannock.header.randomHeaderLinksMaxCollisionRerolls}") int maxCollisionRerolls,
+                         @Value("${bannock.header.layoutPoolSize}") int layoutPoolSize){
+        this.maxCollisionRerolls = maxCollisionRerolls;
+        this.layoutPoolSize = Math.max(1, layoutPoolSize);
+        refresh();
+    }
+
+    private final Logger logger = LogManager.getLogger();
+    private final int maxCollisionRerolls;
+    private final int layoutPoolSize;
+
+    private static final int HEADER_WIDTH = 800;
+    private static final int HEADER_HEIGHT = 90; // Slightly smaller than the header image because it's the area we want to draw in
+
+    // TODO: Add some service so we can easily pull these values from a table
+    // The widths and heights are from chrome dev tools. They are close enough
+    private static final List<HeaderLink> ANONYMOUS_LINKS = List.of(
+            new HeaderLink("Login", "/core/login", 58, 40),
+            new HeaderLink("The ramblings", "/blog/", 132, 40),
+            new HeaderLink("Source code", "https://github.com/DistastefulBannock/Website", 116, 41),
+            new HeaderLink("About me", "/about/", 95, 41)
+    );
+    private static final List<HeaderLink> LOGGED_IN_LINKS = List.of(
+            new HeaderLink("Logout", "/core/logout", 71, 41),
+            new HeaderLink("The ramblings", "/blog/", 132, 40),
+            new HeaderLink("Source code", "https://github.com/DistastefulBannock/Website", 116, 41),
+            new HeaderLink("About me", "/about/", 95, 41)
+    );
+
+    private volatile List<Map<HeaderLink, Integer[]>> anonymousLayouts;
+    private volatile List<Map<HeaderLink, Integer[]>> loggedInLayouts;
+
+    /**
+     * @param loggedIn Whether the header is for a logged in user
+     * @return A map of header links to integer arrays with a size of two for
+     * the respective x and y positions to put them in. Must not be modified
+     */
+    public Map<HeaderLink, Integer[]> getLayout(boolean loggedIn){
+        List<Map<HeaderLink, Integer[]>> layouts = loggedIn ? loggedInLayouts : anonymousLayouts;
+        return layouts.get(ThreadLocalRandom.current().nextInt(layouts.size()));
+    }
+
+    /**
+     * Replaces the pools with newly made layouts
+     */
+    @Scheduled(fixedDelayString = "${bannock.header.layoutRefreshMillis}",
+            initialDelayString = "${bannock.header.layoutRefreshMillis}")
+    public void refresh(){
+        long refreshStartMillis = System.currentTimeMillis();
+        anonymousLayouts = makeLayouts(ANONYMOUS_LINKS);
+        loggedInLayouts = makeLayouts(LOGGED_IN_LINKS);
+        logger.debug("Refreshed header layouts in {}ms, layoutPoolSize={}",
+                System.currentTimeMillis() - refreshStartMillis, layoutPoolSize);
+    }
+
+    /**
+     * @param headerLinks The links to lay out
+     * @return A pool of layouts for the links
+     */
+    private List<Map<HeaderLink, Integer[]>> makeLayouts(List<HeaderLink> headerLinks){
+        List<Map<HeaderLink, Integer[]>> layouts = new ArrayList<>(layoutPoolSize);
+        int collidingLayouts = 0;
+        for (int i = 0; i < layoutPoolSize; i++){
+            Map<HeaderLink, Integer[]> layout;
+            int attempts = 0;
+            do{
+                layout = makeLayout(headerLinks);
+            }while(layout == null && ++attempts < maxCollisionRerolls);
+            if (layout == null){
+                // Goes with a layout that collides rather than having no header at all
+                layout = makeLayout(headerLinks, true);
+                collidingLayouts++;
+            }
+            layouts.add(layout);
+        }
+        if (collidingLayouts > 0)
+            logger.warn("Hit the collision reroll limit for header links, collidingLayouts={}, layoutPoolSize={}, " +
+                    "maxCollisionRerolls={}, headerLinks={}", collidingLayouts, layoutPoolSize, maxCollisionRerolls, headerLinks);
+        return List.copyOf(layouts);
+    }
+
+    /**
+     * @param headerLinks The links to lay out
+     * @return A layout where no links collide, or null if one couldn't be found
+     */
+    private Map<HeaderLink, Integer[]> makeLayout(List<HeaderLink> headerLinks){
+        return makeLayout(headerLinks, false);
+    }
+
+    /**
+     * @param headerLinks The links to lay out
+     * @param allowCollisions Whether links that still collide after rerolling are kept where they are
+     * @return The layout, or null if a link collided and collisions aren't allowed
+     */
+    private Map<HeaderLink, Integer[]> makeLayout(List<HeaderLink> headerLinks, boolean allowCollisions){
+        Map<HeaderLink, Integer[]> headerLinksToPositions = new LinkedHashMap<>();
+        for (HeaderLink headerLink : headerLinks){
+            int x, y;
+            int rolls = 0;
+            boolean colliding;
+            do{
+                x = getPositionForBoundInRange(HEADER_WIDTH, headerLink.getWidth());
+                y = getPositionForBoundInRange(HEADER_HEIGHT, headerLink.getHeight());
+                colliding = isBoundingWithOtherLink(headerLinksToPositions, headerLink, x, y);
+            }while(colliding && rolls++ < maxCollisionRerolls);
+            if (colliding && !allowCollisions)
+                return null;
+            headerLinksToPositions.put(headerLink, new Integer[]{x, y});
+        }
+        return Collections.unmodifiableMap(headerLinksToPositions);
+    }
+
+    private boolean isBoundingWithOtherLink(Map<HeaderLink, Integer[]> headerLinksToPositions, HeaderLink newLink,
+                                            int newLinkX, int newLinkY){
+        int newLinkWidth = newLink.getWidth();
+        int newLinkHeight = newLink.getHeight();
+        for (Map.Entry<HeaderLink, Integer[]> linkToPosition : headerLinksToPositions.entrySet()){
+            HeaderLink link = linkToPosition.getKey();
+            int width = link.getWidth();
+            int height = link.getHeight();
+            int x = linkToPosition.getValue()[0];
+            int y = linkToPosition.getValue()[1];
+            if (newLinkX < x + width
+                    && newLinkX + newLinkWidth > x
+                    && newLinkY < y + height
+                    && newLinkY + newLinkHeight > y)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Calculates a random point within an area that the provided bound will fit in.
+     * If the bound is greater than the area, the bound is ignored and a random point is chosen
+     * @param areaSize The total size of the area that the bound is going in
+     * @param boundSize The bound's size
+     * @return A random position that the bound can be put into
+     */
+    private int getPositionForBoundInRange(int areaSize, int boundSize){
+        if (boundSize > areaSize){
+            areaSize += boundSize;
+        }
+        areaSize -= boundSize;
+        return ThreadLocalRandom.current().nextInt(areaSize + 1);
+    }
+
+}
@@ -1,14 +1,22 @@
 package me.bannock.website.security;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import me.bannock.website.security.authentication.AuthFailHandlerImpl;
+import me.bannock.website.security.authentication.BoundedPasswordEncoder;
+import me.bannock.website.security.authentication.PrincipalRefreshFilter;
+import me.bannock.website.security.authentication.SharedAnonymousContextFilter;
+import me.bannock.website.services.user.impl.hibernate.HibernateUserServiceImpl;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Scope;
-import org.springframework.security.config.Customizer;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.core.GrantedAuthorityDefaults;
 import org.springframework.security.config.http.SessionCreationPolicy;
@@ -16,16 +24,50 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.DefaultSecurityFilterChain;
 import org.springframework.security.web.authentication.AuthenticationFailureHandler;
+import org.springframework.security.web.context.RequestAttributeSecurityContextRepository;
+import org.springframework.security.web.context.SecurityContextHolderFilter;
+import org.springframework.security.web.csrf.CookieCsrfTokenRepository;
+import org.springframework.security.web.csrf.CsrfTokenRequestHandler;
+import org.springframework.security.web.csrf.XorCsrfTokenRequestAttributeHandler;
+import org.springframework.security.web.savedrequest.NullRequestCache;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.OrRequestMatcher;
+import org.springframework.security.web.util.matcher.RegexRequestMatcher;
 
 @Configuration
 @EnableWebSecurity
 @EnableMethodSecurity(securedEnabled = true)
 public class SecurityConfiguration {
 
+    /**
+     * Matches post assets, but not the post pages themselves, which are personalised
+     */
+    private static final String POST_ASSET_PATTERN = "^/blog/\\d+/[^/?]+(\\?.*)?$";
+
+    @Value("${bannock.security.principalRefreshMillis}")
+    private long principalRefreshMillis;
+    @Value("${bannock.security.bcryptStrength}")
+    private int bcryptStrength;
+    @Value("${bannock.security.passwordHashThreads}")
+    private int passwordHashThreads;
+    @Value("${bannock.security.passwordHashQueueSize}")
+    private int passwordHashQueueSize;
+    @Value("${bannock.security.passwordHashMaxWaitMillis}")
+    private long passwordHashMaxWaitMillis;
+
     @Bean
     @Scope(ConfigurableBeanFactory.SCOPE_SINGLETON)
-    public PasswordEncoder passwordEncoder(){
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(MeterRegistry meterRegistry){
+        return new BoundedPasswordEncoder(new BCryptPasswordEncoder(bcryptStrength), passwordHashThreads,
+                passwordHashQueueSize, passwordHashMaxWaitMillis, meterRegistry);
+    }
+
+    /**
+     * Also used by controllers that have to check csrf tokens themselves, so tokens are read the same way everywhere
+     */
+    @Bean
+    public CsrfTokenRequestHandler csrfTokenRequestHandler(){
+        return new XorCsrfTokenRequestAttributeHandler();
     }
 
     @Bean
@@ -34,19 +76,62 @@ public class SecurityConfiguration {
         return new AuthFailHandlerImpl();
     }
 
+    /**
+     * Public files are sent without loading a session, checking csrf tokens or building a security context for
+     * each request. Only reads are matched so anything that changes state still goes through {@link #configureHttp}
+     */
+    @Bean
+    @Order(1)
+    @Autowired
+    public DefaultSecurityFilterChain configureStaticHttp(HttpSecurity security) throws Exception {
+        security.securityMatcher(new OrRequestMatcher(
+                AntPathRequestMatcher.antMatcher(HttpMethod.GET, "/resources/**"),
+                AntPathRequestMatcher.antMatcher(HttpMethod.HEAD, "/resources/**"),
+                RegexRequestMatcher.regexMatcher(HttpMethod.GET, POST_ASSET_PATTERN),
+                RegexRequestMatcher.regexMatcher(HttpMethod.HEAD, POST_ASSET_PATTERN)
+        ));
+
+        security.sessionManagement(sessionManagement -> {
+            sessionManagement.sessionCreationPolicy(SessionCreationPolicy.STATELESS);
+        });
+        security.securityContext(securityContext -> securityContext
+                .securityContextRepository(new RequestAttributeSecurityContextRepository()));
+        security.requestCache(requestCache -> requestCache.requestCache(new NullRequestCache()));
+        security.csrf(AbstractHttpConfigurer::disable);
+        security.anonymous(AbstractHttpConfigurer::disable);
+        security.addFilterAfter(new SharedAnonymousContextFilter(Roles.DEFAULT_ANON_ROLES),
+                SecurityContextHolderFilter.class);
+
+        security.authorizeHttpRequests(authManagerRegistry -> authManagerRegistry.anyRequest().permitAll());
+        return security.build();
+    }
+
     @Bean
     @Autowired
     public DefaultSecurityFilterChain configureHttp(HttpSecurity security,
-                                                    AuthenticationFailureHandler authFailureHandler) throws Exception {
+                                                    AuthenticationFailureHandler authFailureHandler,
+                                                    HibernateUserServiceImpl userService,
+                                                    CsrfTokenRequestHandler csrfTokenRequestHandler) throws Exception {
+        // Sessions are only made once there's a user to keep in them, such as after logging in or being
+        // given a dummy account, so anonymous readers and crawlers don't fill up the session store
         security.sessionManagement(sessionManagement -> {
-            sessionManagement.sessionCreationPolicy(SessionCreationPolicy.ALWAYS);
+            sessionManagement.sessionCreationPolicy(SessionCreationPolicy.IF_REQUIRED);
         });
 
+        // Logins always go to the default success url, so the request that sent a user to
+        // the login page would never be used. Saving it would make a session for them
+        security.requestCache(requestCache -> requestCache.requestCache(new NullRequestCache()));
+
         security.authorizeHttpRequests(authManagerRegistry -> authManagerRegistry.requestMatchers(
                 "/", "/core/", "/core/login*", "/core/register*",
                 "/error*", "/resources/**", "/blog/**", "/about/**"
         ).permitAll().anyRequest().authenticated());
 
+        // Not a bean so it's only registered in the security chain, not also as a servlet filter.
+        // Given the database backed user service so refreshes aren't answered from the user cache
+        security.addFilterAfter(new PrincipalRefreshFilter(userService, principalRefreshMillis),
+                SecurityContextHolderFilter.class);
+
         security.anonymous(anonymousConfigurer -> {
             anonymousConfigurer.authorities(Roles.DEFAULT_ANON_ROLES).configure(security);
         });
@@ -68,7 +153,12 @@ public class SecurityConfiguration {
                 .deleteCookies("JSESSIONID")
         );
 
-        security.csrf(Customizer.withDefaults());
+        // Kept in a cookie instead of the session so anonymous users can be shown forms without a session
+        // Post uploads are streamed, so their token can't be read as a parameter without reading the whole
+        // upload first. The blog controller checks it from the first part of the upload instead
+        security.csrf(csrf -> csrf.csrfTokenRepository(new CookieCsrfTokenRepository())
+                .csrfTokenRequestHandler(csrfTokenRequestHandler)
+                .ignoringRequestMatchers(AntPathRequestMatcher.antMatcher(HttpMethod.POST, "/blog/makePost")));
 
         return security.build();
     }
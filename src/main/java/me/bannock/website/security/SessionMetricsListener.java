@@ -0,0 +1,113 @@
+package me.bannock.website.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpSessionAttributeListener;
+import jakarta.servlet.http.HttpSessionBindingEvent;
+import jakarta.servlet.http.HttpSessionEvent;
+import jakarta.servlet.http.HttpSessionListener;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records how many sessions exist and roughly how much memory each one holds. A session's size is
+ * estimated by serializing its attributes whenever one of them is set, which only happens when a user
+ * logs in or is given a dummy account, so it doesn't add to the cost of reads
+ */
+@Component
+public class SessionMetricsListener implements HttpSessionListener, HttpSessionAttributeListener {
+
+    @Autowired
+    public SessionMetricsListener(MeterRegistry meterRegistry){
+        this.createdSessions = Counter.builder("http.sessions.created")
+                .description("Sessions that have been created").register(meterRegistry);
+        this.destroyedSessions = Counter.builder("http.sessions.destroyed")
+                .description("Sessions that have been invalidated or have expired").register(meterRegistry);
+        Gauge.builder("http.sessions.active", activeSessions, AtomicInteger::get)
+                .description("Sessions that currently exist").register(meterRegistry);
+        this.sessionSizes = DistributionSummary.builder("http.sessions.size")
+                .description("The estimated size of a session's attributes each time they change")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    private final Logger logger = LogManager.getLogger();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final Counter createdSessions;
+    private final Counter destroyedSessions;
+    private final DistributionSummary sessionSizes;
+
+    @Override
+    public void sessionCreated(HttpSessionEvent event) {
+        activeSessions.incrementAndGet();
+        createdSessions.increment();
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent event) {
+        activeSessions.decrementAndGet();
+        destroyedSessions.increment();
+    }
+
+    @Override
+    public void attributeAdded(HttpSessionBindingEvent event) {
+        recordSize(event.getSession());
+    }
+
+    @Override
+    public void attributeReplaced(HttpSessionBindingEvent event) {
+        recordSize(event.getSession());
+    }
+
+    /**
+     * @param session The session to record the size of
+     */
+    private void recordSize(HttpSession session){
+        CountingOutputStream counter = new CountingOutputStream();
+        try(ObjectOutputStream out = new ObjectOutputStream(counter)){
+            for (String name : Collections.list(session.getAttributeNames())){
+                out.writeObject(name);
+                out.writeObject(session.getAttribute(name));
+            }
+        } catch (IOException e) {
+            // Sessions are expected to be serializable, so this means something was put in one that isn't
+            logger.warn("Could not estimate session size", e);
+            return;
+        } catch (IllegalStateException e) {
+            logger.debug("Session was invalidated while estimating its size", e);
+            return;
+        }
+        sessionSizes.record(counter.count);
+    }
+
+    /**
+     * Counts the bytes written to it and throws them away
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+    }
+
+}
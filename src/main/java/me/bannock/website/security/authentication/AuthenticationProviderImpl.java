@@ -4,6 +4,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.AccountExpiredException;
+import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.DisabledException;
@@ -15,6 +16,8 @@ import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.RejectedExecutionException;
+
 @Component
 public class AuthenticationProviderImpl implements AuthenticationProvider {
 
@@ -39,7 +42,15 @@ public class AuthenticationProviderImpl implements AuthenticationProvider {
             throw new AccountExpiredException("Account is unclaimed. Please claim your account to login here, " +
                     "or otherwise simply put your email into any input form to access your unsecured account.");
         }
-        if (!passwordEncoder.matches(authentication.getCredentials().toString(), userDetails.getPassword())){
+        boolean passwordMatches;
+        try{
+            passwordMatches = passwordEncoder.matches(authentication.getCredentials().toString(), userDetails.getPassword());
+        }catch (RejectedExecutionException e){
+            logger.warn("Unable to check user's password because the server is too busy, email={}",
+                    authentication.getName(), e);
+            throw new AuthenticationServiceException("The server is busy. Please try again shortly.", e);
+        }
+        if (!passwordMatches){
             logger.info("Failed to get user because their provided password doesn't match the account's, email={}",
                     authentication.getName());
             throw new BadCredentialsException("Incorrect password.");
@@ -0,0 +1,135 @@
+package me.bannock.website.security.authentication;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes and checks passwords on a small pool of its own threads. Hashing is deliberately slow, so without this
+ * a flood of login attempts could tie up every request thread and starve everyone else. Only a limited amount
+ * of work may wait for the pool; anything more is rejected straight away with a {@link RejectedExecutionException},
+ * as is anything that waits longer than the configured time
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder, DisposableBean {
+
+    /**
+     * @param passwordEncoder The encoder that does the actual hashing
+     * @param threads The amount of threads that may hash at once
+     * @param queueSize The most hashes that may wait for a thread
+     * @param maxWaitMillis The longest a caller will wait for their hash, including time spent queued
+     * @param meterRegistry The registry to export the pool's metrics to
+     */
+    public BoundedPasswordEncoder(PasswordEncoder passwordEncoder, int threads, int queueSize,
+                                  long maxWaitMillis, MeterRegistry meterRegistry){
+        this.passwordEncoder = passwordEncoder;
+        this.maxWaitMillis = maxWaitMillis;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-%s".formatted(threadCount.incrementAndGet()));
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+
+        this.hashTimer = Timer.builder("security.password.hash")
+                .description("Time spent hashing passwords")
+                .register(meterRegistry);
+        this.queueWaitTimer = Timer.builder("security.password.queueWait")
+                .description("Time passwords waited for a hashing thread")
+                .register(meterRegistry);
+        this.rejections = Counter.builder("security.password.rejected")
+                .description("Passwords that were not checked because the hashing threads were too busy")
+                .register(meterRegistry);
+        Gauge.builder("security.password.queued", executor, pool -> pool.getQueue().size())
+                .description("Passwords waiting for a hashing thread")
+                .register(meterRegistry);
+    }
+
+    private final Logger logger = LogManager.getLogger();
+    private final PasswordEncoder passwordEncoder;
+    private final long maxWaitMillis;
+    private final ThreadPoolExecutor executor;
+    private final Timer hashTimer, queueWaitTimer;
+    private final Counter rejections;
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return hash(() -> passwordEncoder.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return hash(() -> passwordEncoder.matches(rawPassword, encodedPassword));
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return passwordEncoder.upgradeEncoding(encodedPassword);
+    }
+
+    /**
+     * Runs some hashing work on the pool and waits for it
+     * @param work The work to run
+     * @return The work's result
+     * @param <T> The type of result the work returns
+     * @throws RejectedExecutionException If the pool is too busy to run the work in time
+     */
+    private <T> T hash(Callable<T> work){
+        long submittedNanos = System.nanoTime();
+        Future<T> result;
+        try{
+            result = executor.submit(() -> {
+                long startNanos = System.nanoTime();
+                queueWaitTimer.record(startNanos - submittedNanos, TimeUnit.NANOSECONDS);
+                try{
+                    return work.call();
+                }finally {
+                    hashTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                }
+            });
+        }catch (RejectedExecutionException e){
+            rejections.increment();
+            logger.warn("Rejected password hash because too many are queued, queuedHashes={}",
+                    executor.getQueue().size());
+            throw e;
+        }
+
+        try {
+            return result.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            rejections.increment();
+            logger.warn("Gave up waiting for password hash, maxWaitMillis={}", maxWaitMillis);
+            throw new RejectedExecutionException("Password hash took longer than %sms".formatted(maxWaitMillis), e);
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for password hash", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException)
+                throw runtimeException;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,59 @@
+package me.bannock.website.security.authentication;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import me.bannock.website.services.user.User;
+import me.bannock.website.services.user.UserService;
+import me.bannock.website.services.user.UserServiceException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * The logged in user is kept in their session so that controllers don't need to look them up on every request.
+ * This filter reloads the user once their copy is older than the configured age so that changes made to their
+ * account, such as bans, still take effect while they're logged in. The user service it's given should not
+ * be cached, otherwise the reloaded user may be as old as the cache allows
+ */
+public class PrincipalRefreshFilter extends OncePerRequestFilter {
+
+    public PrincipalRefreshFilter(UserService userService, long maxPrincipalAgeMillis){
+        this.userService = userService;
+        this.maxPrincipalAgeMillis = maxPrincipalAgeMillis;
+    }
+
+    private final Logger logger = LogManager.getLogger();
+    private final UserService userService;
+    private final long maxPrincipalAgeMillis;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && auth.getPrincipal() instanceof UserDetailsImpl userDetails
+                && userDetails.isStale(maxPrincipalAgeMillis)){
+            try {
+                User user = userService.getUserWithId(userDetails.getUserId());
+                userDetails.refresh(user);
+                logger.debug("Refreshed logged in user, user={}", user);
+            } catch (UserServiceException e) {
+                logger.warn("Could not refresh logged in user so they have been logged out, userId={}",
+                        userDetails.getUserId(), e);
+                SecurityContextHolder.clearContext();
+                HttpSession session = request.getSession(false);
+                if (session != null)
+                    session.removeAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY);
+            }
+        }
+        filterChain.doFilter(request, response);
+    }
+
+}
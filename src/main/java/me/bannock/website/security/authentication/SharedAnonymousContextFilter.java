@@ -0,0 +1,56 @@
+package me.bannock.website.security.authentication;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Gives every request the same anonymous security context instead of building a new one for each request.
+ * Only meant for public reads that never log anyone in, so the context can't be changed once it's made
+ */
+public class SharedAnonymousContextFilter extends OncePerRequestFilter {
+
+    public SharedAnonymousContextFilter(String... authorities){
+        this.anonymousContext = new ImmutableSecurityContext(new AnonymousAuthenticationToken(
+                UUID.randomUUID().toString(), "anonymousUser", AuthorityUtils.createAuthorityList(authorities)));
+    }
+
+    private final SecurityContext anonymousContext;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        // Cleared again by the security context holder filter once the request is done
+        SecurityContextHolder.setContext(anonymousContext);
+        filterChain.doFilter(request, response);
+    }
+
+    /**
+     * A security context that is shared between requests, so nothing may change who it's for
+     * @param authentication The authentication that every request is given
+     */
+    private record ImmutableSecurityContext(Authentication authentication) implements SecurityContext {
+
+        @Override
+        public Authentication getAuthentication() {
+            return authentication;
+        }
+
+        @Override
+        public void setAuthentication(Authentication authentication) {
+            throw new UnsupportedOperationException("The shared anonymous security context can not be changed");
+        }
+
+    }
+
+}
@@ -1,6 +1,8 @@
 package me.bannock.website.security.authentication;
 
 import me.bannock.website.services.user.User;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -9,14 +11,71 @@ import java.util.Collection;
 
 public class UserDetailsImpl implements UserDetails {
 
+    private static final long serialVersionUID = 3621L;
+
     public UserDetailsImpl(User user){
         this.user = user;
+        this.userLoadedMillis = System.currentTimeMillis();
         this.roles = user.getRoles().stream().map(SimpleGrantedAuthority::new).toList();
     }
 
-    private final User user;
+    /**
+     * The user as they were when last loaded. Lives in the session, so it's periodically
+     * refreshed to pick up changes such as bans
+     */
+    private volatile User user;
+    private volatile long userLoadedMillis;
     private final Collection<? extends GrantedAuthority> roles;
 
+    /**
+     * @return The logged in user's id
+     */
+    public long getUserId(){
+        return user.getId();
+    }
+
+    /**
+     * @return Whether the logged in user is disabled, as of the last refresh
+     */
+    public boolean isAccountDisabled(){
+        return user.isAccountDisabled();
+    }
+
+    /**
+     * @return Whether the logged in user is shadow banned, as of the last refresh
+     */
+    public boolean isShadowBanned(){
+        return user.isShadowBanned();
+    }
+
+    /**
+     * @param maxAgeMillis The longest the user may go without being reloaded
+     * @return Whether the user was last loaded more than maxAgeMillis ago
+     */
+    public boolean isStale(long maxAgeMillis){
+        return System.currentTimeMillis() - userLoadedMillis > maxAgeMillis;
+    }
+
+    /**
+     * Replaces the user with a freshly loaded copy. Roles are not refreshed because the
+     * authentication holds its own copy of them; they change on the next login
+     * @param user The freshly loaded user
+     */
+    public void refresh(User user){
+        if (user.getId() != this.user.getId())
+            throw new IllegalArgumentException("Refreshed user must have the same id");
+        this.user = user;
+        this.userLoadedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return An authentication for this user that can be kept in their session. Like a login's
+     *         authentication once its credentials are erased, it holds no credentials
+     */
+    public Authentication toAuthentication(){
+        return UsernamePasswordAuthenticationToken.authenticated(this, null, roles);
+    }
+
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
         return roles;
@@ -0,0 +1,29 @@
+package me.bannock.website.services.blog;
+
+import me.bannock.website.services.storage.StoredFile;
+
+import java.util.Objects;
+import java.util.Optional;
+
+public record AssetView(StoredFile file, StoredFile gzippedFile, String mimeType) {
+
+    /**
+     * Everything needed to send a post's asset, loaded together so it can be sent without
+     * going back to the blog service
+     * @param file The file the asset is stored in
+     * @param gzippedFile The file the gzip compressed copy of the asset is stored in, or null if it has none
+     * @param mimeType The asset's mime type
+     */
+    public AssetView {
+        Objects.requireNonNull(file);
+        Objects.requireNonNull(mimeType);
+    }
+
+    /**
+     * @return The file the gzip compressed copy of the asset is stored in, if it has one
+     */
+    public Optional<StoredFile> getGzippedFile(){
+        return Optional.ofNullable(gzippedFile);
+    }
+
+}
@@ -0,0 +1,21 @@
+package me.bannock.website.services.blog;
+
+import org.overviewproject.mime_types.MimeTypeDetector;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+@Configuration
+@EnableScheduling
+public class BlogConfiguration {
+
+    /**
+     * The detector parses its entire mime type database when created, so only one should ever be made
+     * @return The shared mime type detector
+     */
+    @Bean
+    public MimeTypeDetector mimeTypeDetector(){
+        return new MimeTypeDetector();
+    }
+
+}
@@ -2,6 +2,7 @@ package me.bannock.website.services.blog;
 
 import me.bannock.website.security.Roles;
 import org.springframework.security.access.annotation.Secured;
+import org.springframework.security.access.prepost.PreAuthorize;
 
 import java.io.InputStream;
 import java.util.List;
@@ -16,6 +17,21 @@ public interface BlogService {
     @Secured(Roles.BlogServiceRoles.READ_POSTS)
     Post getPost(long postId) throws BlogServiceException;
 
+    /**
+     * Gets a post along with its author and a page of its comments in a single read. Only one of the
+     * comment page or cursors is used; the cursors take priority
+     * @param postId The post's id
+     * @param commentPage The page of comments to get, or a negative number to get the last page
+     * @param commentsAfter The cursor of the last comment on the previous page, or null
+     * @param commentsBefore The cursor of the first comment on the next page, or null
+     * @return The post and everything needed to display it
+     * @throws BlogServiceException If the post doesn't exist, has been deleted or its author couldn't be found
+     */
+    @PreAuthorize("hasAuthority('" + Roles.BlogServiceRoles.READ_POSTS + "') and " +
+            "hasAuthority('" + Roles.BlogServiceRoles.READ_COMMENTS + "')")
+    PostView getPostView(long postId, int commentPage,
+                         PageCursor commentsAfter, PageCursor commentsBefore) throws BlogServiceException;
+
     /**
      * Gets a steam of data for a given post's index file; the one shown by default when the post is displayed
      * @param postId The post id the index is for
@@ -35,6 +51,16 @@ public interface BlogService {
     @Secured(Roles.BlogServiceRoles.READ_POSTS)
     InputStream getAsset(long postId, String assetPath) throws BlogServiceException;
 
+    /**
+     * Gets everything needed to send an asset, its file, gzip compressed copy and mime type, at once
+     * @param postId The post id the asset is related to
+     * @param assetPath The path to the asset
+     * @return The asset's files and mime type
+     * @throws BlogServiceException If the post is deleted or something goes wrong while getting the asset
+     */
+    @Secured(Roles.BlogServiceRoles.READ_POSTS)
+    AssetView getAssetView(long postId, String assetPath) throws BlogServiceException;
+
     /**
      * Attempt to make a new post
      * @param titleHtml The html to display in the title of the post. Must be less than or equal to 256 characters long
@@ -50,6 +76,40 @@ public interface BlogService {
     Post makePost(String titleHtml, String titlePlaintext, long authorId,
                   String[] tags, Asset index, Asset... assets) throws BlogServiceException;
 
+    /**
+     * Streams an uploaded file into storage so it can later be used in a post without being held in memory
+     * @param name The name of the asset
+     * @param data The data of the asset; will not be closed
+     * @return The staged asset. Must be passed to {@link #makePost(String, String, long, String[], StagedAsset, List)}
+     * or {@link #discardStagedAssets(List)}
+     * @throws BlogServiceException If the asset is too large or something goes wrong while staging it
+     */
+    @Secured(Roles.BlogServiceRoles.MAKE_POSTS)
+    StagedAsset stageAsset(String name, InputStream data) throws BlogServiceException;
+
+    /**
+     * Attempt to make a new post from assets that have already been staged. The staged assets
+     * are used up whether the post is made or not
+     * @param titleHtml The html to display in the title of the post. Must be less than or equal to 256 characters long
+     * @param titlePlaintext The text to display as the title on the post page. Must be less than or equal to 256 chars long
+     * @param authorId The author of the post
+     * @param tags The tags the post should have. Used by users for searching post topics.
+     * @param index The index file of the post; what is shown to the user when first opened
+     * @param assets Any asset files used by the post
+     * @return The post
+     * @throws BlogServiceException If something went wrong while creating the post
+     */
+    @Secured(Roles.BlogServiceRoles.MAKE_POSTS)
+    Post makePost(String titleHtml, String titlePlaintext, long authorId,
+                  String[] tags, StagedAsset index, List<StagedAsset> assets) throws BlogServiceException;
+
+    /**
+     * Deletes staged assets that will not be used in a post
+     * @param stagedAssets The staged assets to delete
+     */
+    @Secured(Roles.BlogServiceRoles.MAKE_POSTS)
+    void discardStagedAssets(List<StagedAsset> stagedAssets);
+
     /**
      * Deletes a given post
      * @param postId The id of the post that's to be deleted
@@ -65,6 +125,22 @@ public interface BlogService {
     @Secured(Roles.BlogServiceRoles.READ_POSTS)
     List<Post> getFeaturedPosts(int page);
 
+    /**
+     * Gets the page of featured posts that follows a given post. Faster than {@link #getFeaturedPosts(int)} on deep pages
+     * @param cursor The cursor of the last post on the previous page
+     * @return The featured posts that were made before the post at the cursor
+     */
+    @Secured(Roles.BlogServiceRoles.READ_POSTS)
+    List<Post> getFeaturedPostsAfter(PageCursor cursor);
+
+    /**
+     * Gets the page of featured posts that precedes a given post. Faster than {@link #getFeaturedPosts(int)} on deep pages
+     * @param cursor The cursor of the first post on the next page
+     * @return The featured posts that were made after the post at the cursor
+     */
+    @Secured(Roles.BlogServiceRoles.READ_POSTS)
+    List<Post> getFeaturedPostsBefore(PageCursor cursor);
+
     /**
      * @return The total amount of pages of featured posts
      */
@@ -18,6 +18,16 @@ public class BlogServiceException extends Exception {
         this.userFriendlyError = userFriendlyError;
     }
 
+    /**
+     * @param userFriendlyError The error that should be shown to the user
+     * @param message The message to show in any logs
+     * @param cause What caused the error
+     */
+    public BlogServiceException(String userFriendlyError, String message, Throwable cause){
+        super(message, cause);
+        this.userFriendlyError = userFriendlyError;
+    }
+
     private final String userFriendlyError;
 
     public String getUserFriendlyError() {
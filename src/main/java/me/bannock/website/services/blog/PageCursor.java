@@ -0,0 +1,58 @@
+package me.bannock.website.services.blog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+public record PageCursor(long millisPosted, long id) {
+
+    /**
+     * A position in a list of posts or comments ordered by when they were posted. Pages are fetched relative
+     * to a cursor so the database can seek straight to them instead of skipping over every earlier row
+     * @param millisPosted The time the element at the cursor was posted in milliseconds
+     * @param id The id of the element at the cursor; breaks ties between elements posted at the same time
+     */
+    public PageCursor {}
+
+    /**
+     * @param post The post to make the cursor for
+     * @return A cursor positioned at the post
+     */
+    public static PageCursor of(Post post){
+        return new PageCursor(post.millisPosted(), post.postId());
+    }
+
+    /**
+     * @param comment The comment to make the cursor for
+     * @return A cursor positioned at the comment
+     */
+    public static PageCursor of(Comment comment){
+        return new PageCursor(comment.millisPosted(), comment.commentId());
+    }
+
+    /**
+     * @return An opaque string that can be handed to users and later turned back into this cursor
+     */
+    public String encode(){
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("%x.%x".formatted(millisPosted, id).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @param encodedCursor A cursor made by {@link #encode()}
+     * @return The decoded cursor
+     * @throws BlogServiceException If the string is not a valid cursor
+     */
+    public static PageCursor decode(String encodedCursor) throws BlogServiceException {
+        try{
+            String[] parts = new String(Base64.getUrlDecoder().decode(encodedCursor), StandardCharsets.US_ASCII)
+                    .split("\\.");
+            if (parts.length != 2)
+                throw new IllegalArgumentException("Cursor must have two parts");
+            return new PageCursor(Long.parseUnsignedLong(parts[0], 16), Long.parseUnsignedLong(parts[1], 16));
+        }catch (IllegalArgumentException e){
+            throw new BlogServiceException("Invalid page link. Please go back and try again.",
+                    "Could not decode page cursor \"%s\"".formatted(encodedCursor));
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+package me.bannock.website.services.blog;
+
+import me.bannock.website.services.user.User;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+public record PostView(Post post, User author, List<Comment> comments, Map<Long, User> commentAuthors,
+                       int commentPage, int totalCommentPages,
+                       PageCursor newerCommentsCursor, PageCursor olderCommentsCursor) {
+
+    /**
+     * Everything needed to display a post page, loaded together so the page can be built without going back
+     * to the database
+     * @param post The post
+     * @param author The post's author
+     * @param comments The requested page of comments under the post
+     * @param commentAuthors The authors of the comments, keyed by their user ids. Comments whose authors could
+     *                       not be found have no entry
+     * @param commentPage The page number of the comments, or -1 if they were requested using a cursor
+     * @param totalCommentPages The total amount of comment pages for the post
+     * @param newerCommentsCursor The cursor to get the page of newer comments with, or null if there are none
+     * @param olderCommentsCursor The cursor to get the page of older comments with, or null if there are none
+     */
+    public PostView {
+        Objects.requireNonNull(post);
+        Objects.requireNonNull(author);
+        Objects.requireNonNull(comments);
+        Objects.requireNonNull(commentAuthors);
+    }
+
+}
@@ -0,0 +1,17 @@
+package me.bannock.website.services.blog;
+
+import me.bannock.website.services.storage.StagedFile;
+
+import java.util.Objects;
+
+public record StagedAsset(String name, StagedFile file) {
+
+    /**
+     * @param name The name of the asset
+     * @param file The staged data of the asset
+     */
+    public StagedAsset {
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(file);
+    }
+}
@@ -0,0 +1,18 @@
+package me.bannock.website.services.blog.cache;
+
+/**
+ * The parts of a post's page that look the same to everyone, already rendered and encoded
+ * @param beforeHeaders Everything before the page's headers, including the head
+ * @param postContent The post's title, tags, author and content
+ * @param afterComments Everything after the comments, including the footers
+ */
+public record CachedPostPage(byte[] beforeHeaders, byte[] postContent, byte[] afterComments) {
+
+    /**
+     * @return The amount of bytes the cached page takes up
+     */
+    public long size(){
+        return (long)beforeHeaders.length + postContent.length + afterComments.length;
+    }
+
+}
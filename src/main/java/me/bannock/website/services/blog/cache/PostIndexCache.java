@@ -0,0 +1,75 @@
+package me.bannock.website.services.blog.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Holds the decoded index of recently viewed posts so that they don't need to be read from storage
+ * and decoded on every view. Posts can't be edited after they are made, so entries only need to be
+ * invalidated when a post is deleted
+ */
+@Component
+public class PostIndexCache {
+
+    @Autowired
+    public PostIndexCache(MeterRegistry meterRegistry,
+                          @Value("${bannock.blog.indexCache.maxWeightBytes:67108864}") long maxWeightBytes){
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher(this::getWeight)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "blog.postIndexes");
+    }
+
+    private final Logger logger = LogManager.getLogger();
+    private final Cache<Long, String> cache;
+
+    /**
+     * @param postId The id of the post the index is for
+     * @return The decoded index if it's cached, otherwise empty
+     */
+    public Optional<String> get(long postId){
+        return Optional.ofNullable(cache.getIfPresent(postId));
+    }
+
+    /**
+     * @param postId The id of the post the index is for
+     * @param index The decoded index
+     */
+    public void put(long postId, String index){
+        Objects.requireNonNull(index);
+        cache.put(postId, index);
+    }
+
+    /**
+     * Removes a post's index from the cache, if it is cached
+     * @param postId The id of the post to remove
+     */
+    public void invalidate(long postId){
+        cache.invalidate(postId);
+        logger.info("Invalidated cached post index, postId={}", postId);
+    }
+
+    /**
+     * Strings store their characters in either one or two bytes depending on their content,
+     * so this assumes the worst case
+     * @param postId The id of the post the index is for
+     * @param index The decoded index
+     * @return The approximate amount of bytes the index takes up in memory
+     */
+    private int getWeight(Long postId, String index){
+        return (int)Math.min(Integer.MAX_VALUE, index.length() * 2L);
+    }
+
+}
@@ -0,0 +1,67 @@
+package me.bannock.website.services.blog.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Holds the rendered parts of recently viewed posts' pages that are the same for every visitor, so only
+ * the personalised parts need to be rendered on each view. Entries expire after a while since the
+ * surrounding page can change without the post changing, such as the year in the footer
+ */
+@Component
+public class PostPageCache {
+
+    @Autowired
+    public PostPageCache(MeterRegistry meterRegistry,
+                         @Value("${bannock.blog.pageCache.maxWeightBytes}") long maxWeightBytes,
+                         @Value("${bannock.blog.pageCache.expireAfterWriteMillis}") long expireAfterWriteMillis){
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((Long postId, CachedPostPage page) -> (int)Math.min(Integer.MAX_VALUE, page.size()))
+                .expireAfterWrite(Duration.ofMillis(expireAfterWriteMillis))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "blog.postPages");
+    }
+
+    private final Logger logger = LogManager.getLogger();
+    private final Cache<Long, CachedPostPage> cache;
+
+    /**
+     * @param postId The id of the post the page is for
+     * @return The rendered page if it's cached, otherwise empty
+     */
+    public Optional<CachedPostPage> get(long postId){
+        return Optional.ofNullable(cache.getIfPresent(postId));
+    }
+
+    /**
+     * @param postId The id of the post the page is for
+     * @param page The rendered page
+     */
+    public void put(long postId, CachedPostPage page){
+        Objects.requireNonNull(page);
+        cache.put(postId, page);
+    }
+
+    /**
+     * Removes a post's page from the cache, if it is cached
+     * @param postId The id of the post to remove
+     */
+    public void invalidate(long postId){
+        cache.invalidate(postId);
+        logger.info("Invalidated cached post page, postId={}", postId);
+    }
+
+}
@@ -0,0 +1,167 @@
+package me.bannock.website.services.blog.hibernate;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps running totals of posts and comments so that page counts don't need a count query on every view.
+ * Totals are loaded from the database the first time they're needed, then kept up to date as posts and
+ * comments are made or deleted. Changes made outside of this application may cause the totals to drift,
+ * so they are periodically reloaded
+ */
+@Component
+public class BlogCountsCache {
+
+    @Autowired
+    public BlogCountsCache(PostRepository postRepository, CommentRepository commentRepository,
+                           @Value("${bannock.hibernateBlog.commentCountsCacheSize}") long commentCountsCacheSize){
+        this.postRepository = postRepository;
+        this.commentRepository = commentRepository;
+        this.commentCounts = Caffeine.newBuilder()
+                .maximumSize(commentCountsCacheSize)
+                .build();
+    }
+
+    private final Logger logger = LogManager.getLogger();
+    private final PostRepository postRepository;
+    private final CommentRepository commentRepository;
+    private final MaintainedCount featuredPostCount = new MaintainedCount();
+    private final Cache<Long, MaintainedCount> commentCounts;
+
+    /**
+     * @return The amount of posts that have not been deleted
+     */
+    public long getFeaturedPostCount(){
+        return featuredPostCount.get(postRepository::countByDeletedFalse);
+    }
+
+    /**
+     * @param postId The post to get the comment count for
+     * @return The amount of comments under the post that have not been deleted
+     */
+    public long getCommentCount(long postId){
+        return commentCounts.get(postId, key -> new MaintainedCount())
+                .get(() -> commentRepository.countByPostIdAndDeletedFalse(postId));
+    }
+
+    /**
+     * Records that a post has been made. If called within a transaction, the change is only applied once it commits
+     */
+    public void postMade(){
+        afterCommit(() -> featuredPostCount.add(1));
+    }
+
+    /**
+     * Records that a post has been deleted. If called within a transaction, the change is only applied once it commits
+     */
+    public void postDeleted(){
+        afterCommit(() -> featuredPostCount.add(-1));
+    }
+
+    /**
+     * Records that a comment has been made. If called within a transaction, the change is only applied once it commits
+     * @param postId The post the comment was made under
+     */
+    public void commentMade(long postId){
+        afterCommit(() -> {
+            // Posts without a count will have the comment included when theirs is loaded
+            MaintainedCount commentCount = commentCounts.getIfPresent(postId);
+            if (commentCount != null)
+                commentCount.add(1);
+        });
+    }
+
+    /**
+     * Throws away all the totals so they are reloaded from the database the next time they're needed
+     */
+    @Scheduled(fixedDelayString = "${bannock.hibernateBlog.countsReconcileMillis}",
+            initialDelayString = "${bannock.hibernateBlog.countsReconcileMillis}")
+    public void reconcile(){
+        featuredPostCount.reset();
+        commentCounts.invalidateAll();
+        logger.info("Reset cached blog post and comment counts");
+    }
+
+    /**
+     * Runs a task once the current transaction commits, or immediately if there is no transaction
+     * @param task The task to run
+     */
+    private void afterCommit(Runnable task){
+        if (!TransactionSynchronizationManager.isSynchronizationActive()){
+            task.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                task.run();
+            }
+        });
+    }
+
+    /**
+     * A total that's loaded from the database once and then kept up to date. Changes made while the total is
+     * being loaded are applied on top of the loaded value, so concurrent loads and changes can't lose each other
+     */
+    private static class MaintainedCount {
+
+        private long count;
+        private boolean loaded;
+
+        /**
+         * The sum of every change ever made, so a load can tell which changes were made while it ran
+         */
+        private long changes;
+
+        /**
+         * @param loader Counts the total in the database
+         * @return The total
+         */
+        private long get(LongSupplier loader){
+            long changesBeforeLoad;
+            synchronized (this){
+                if (loaded)
+                    return count;
+                changesBeforeLoad = changes;
+            }
+
+            // Counted outside of the lock so threads are never held up, or virtual threads pinned, by the query
+            long loadedCount = loader.getAsLong();
+            synchronized (this){
+                if (!loaded){
+                    count = Math.max(0, loadedCount + changes - changesBeforeLoad);
+                    loaded = true;
+                }
+                return count;
+            }
+        }
+
+        /**
+         * @param delta The amount to change the total by
+         */
+        private synchronized void add(long delta){
+            changes += delta;
+            if (loaded)
+                count = Math.max(0, count + delta);
+        }
+
+        /**
+         * Makes the total be loaded again the next time it's needed
+         */
+        private synchronized void reset(){
+            loaded = false;
+        }
+
+    }
+
+}
@@ -11,7 +11,7 @@ import jakarta.persistence.Table;
 @Entity
 @Table(name = "blog_comments", indexes = {
         @Index(columnList = "comment_id", unique = true),
-        @Index(columnList = "post_id, deleted"),
+        @Index(columnList = "post_id, deleted, millis_posted, comment_id"),
         @Index(columnList = "millis_posted, original_author_ip")
 })
 public class CommentEntity {
@@ -1,8 +1,11 @@
 package me.bannock.website.services.blog.hibernate;
 
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
 
 public interface CommentRepository extends JpaRepository<CommentEntity, Long> {
 
@@ -10,8 +13,51 @@ public interface CommentRepository extends JpaRepository<CommentEntity, Long> {
      * Finds a given amount of comments using the comments' post id
      * @param postId The id of the post that the comments are under
      * @param pageable The page configuration for pagination
-     * @return A list containing all the comments under the given post
+     * @return A list containing the comments on the page ordered by the date they were posted desc.
+     * No count query is run for this method
+     */
+    List<CommentEntity> findByPostIdAndDeletedFalseOrderByMillisPostedDescCommentIdDesc(long postId, Pageable pageable);
+
+    /**
+     * Finds the oldest comments under a post. No count query is run for this method
+     * @param postId The id of the post that the comments are under
+     * @param pageable The page configuration for pagination
+     * @return The comments ordered by the date they were posted asc
+     */
+    List<CommentEntity> findByPostIdAndDeletedFalseOrderByMillisPostedAscCommentIdAsc(long postId, Pageable pageable);
+
+    /**
+     * Seeks to the comments posted before a given comment
+     * @param postId The id of the post that the comments are under
+     * @param millisPosted The time the given comment was posted
+     * @param commentId The id of the given comment
+     * @param pageable The page configuration; only the size is used
+     * @return The comments posted before the given comment ordered by the date they were posted desc
+     */
+    @Query("select c from CommentEntity c where c.postId = :postId and c.deleted = false and " +
+            "(c.millisPosted < :millisPosted or (c.millisPosted = :millisPosted and c.commentId < :commentId)) " +
+            "order by c.millisPosted desc, c.commentId desc")
+    List<CommentEntity> findCommentsOlderThan(@Param("postId") long postId, @Param("millisPosted") long millisPosted,
+                                              @Param("commentId") long commentId, Pageable pageable);
+
+    /**
+     * Seeks to the comments posted after a given comment
+     * @param postId The id of the post that the comments are under
+     * @param millisPosted The time the given comment was posted
+     * @param commentId The id of the given comment
+     * @param pageable The page configuration; only the size is used
+     * @return The comments posted after the given comment ordered by the date they were posted asc
+     */
+    @Query("select c from CommentEntity c where c.postId = :postId and c.deleted = false and " +
+            "(c.millisPosted > :millisPosted or (c.millisPosted = :millisPosted and c.commentId > :commentId)) " +
+            "order by c.millisPosted asc, c.commentId asc")
+    List<CommentEntity> findCommentsNewerThan(@Param("postId") long postId, @Param("millisPosted") long millisPosted,
+                                              @Param("commentId") long commentId, Pageable pageable);
+
+    /**
+     * @param postId The id of the post that the comments are under
+     * @return The amount of comments under the given post that have not been deleted
      */
-    Page<CommentEntity> findByPostIdAndDeletedFalseOrderByMillisPostedDesc(long postId, Pageable pageable);
+    long countByPostIdAndDeletedFalse(long postId);
 
 }
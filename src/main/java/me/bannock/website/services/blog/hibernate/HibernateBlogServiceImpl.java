@@ -1,38 +1,85 @@
 package me.bannock.website.services.blog.hibernate;
 
 import me.bannock.website.services.blog.Asset;
+import me.bannock.website.services.blog.AssetView;
 import me.bannock.website.services.blog.BlogService;
 import me.bannock.website.services.blog.BlogServiceException;
 import me.bannock.website.services.blog.Comment;
+import me.bannock.website.services.blog.PageCursor;
 import me.bannock.website.services.blog.Post;
+import me.bannock.website.services.blog.PostView;
+import me.bannock.website.services.blog.StagedAsset;
+import me.bannock.website.services.blog.cache.PostIndexCache;
+import me.bannock.website.services.blog.cache.PostPageCache;
+import me.bannock.website.services.storage.DataTooLargeException;
+import me.bannock.website.services.storage.StagedFile;
 import me.bannock.website.services.storage.StorageService;
+import me.bannock.website.services.storage.StoredFile;
+import me.bannock.website.services.user.User;
+import me.bannock.website.services.user.UserService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.overviewproject.mime_types.GetBytesException;
+import org.overviewproject.mime_types.MimeTypeDetector;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.LineNumberReader;
+import java.io.OutputStream;
 import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 @Service
 public class HibernateBlogServiceImpl implements BlogService {
 
     @Autowired
     public HibernateBlogServiceImpl(StorageService storageService, PostRepository postRepository,
-                                    CommentRepository commentRepository){
+                                    CommentRepository commentRepository, PostIndexCache postIndexCache,
+                                    MimeTypeDetector mimeTypeDetector, BlogCountsCache blogCountsCache,
+                                    UserService userService, PlatformTransactionManager transactionManager,
+                                    @Qualifier("storageIoExecutor") ExecutorService storageIoExecutor,
+                                    PostPageCache postPageCache){
         this.storageService = storageService;
         this.postRepository = postRepository;
         this.commentRepository = commentRepository;
+        this.postIndexCache = postIndexCache;
+        this.mimeTypeDetector = mimeTypeDetector;
+        this.blogCountsCache = blogCountsCache;
+        this.userService = userService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+        this.storageIoExecutor = storageIoExecutor;
+        this.postPageCache = postPageCache;
     }
 
     private final Logger logger = LogManager.getLogger();
@@ -40,9 +87,28 @@ public class HibernateBlogServiceImpl implements BlogService {
     private final StorageService storageService;
     private final PostRepository postRepository;
     private final CommentRepository commentRepository;
+    private final PostIndexCache postIndexCache;
+    private final MimeTypeDetector mimeTypeDetector;
+    private final BlogCountsCache blogCountsCache;
+    private final UserService userService;
+    private final TransactionTemplate transactionTemplate;
+    /**
+     * For lookups that are followed by file io, so the connection is given back before the io starts
+     */
+    private final TransactionTemplate readOnlyTransactionTemplate;
+    private final ExecutorService storageIoExecutor;
+    private final PostPageCache postPageCache;
 
     @Value("${bannock.hibernateBlog.persistOriginalFileNames}")
     private boolean persistOriginalFileNames;
+    @Value("${bannock.hibernateBlog.precompressedMimeTypes}")
+    private String[] precompressedMimeTypes;
+    @Value("${bannock.hibernateBlog.maxAssetBytes}")
+    private long maxAssetBytes = 104857600;
+    @Value("${bannock.hibernateBlog.precompressMinBytes}")
+    private long precompressMinBytes = 1024;
+    @Value("${bannock.ioTransferBuffer:1024}")
+    private int ioTransferBuffer;
     @Value("${bannock.hibernateBlog.commentPostingEnabled}")
     private boolean commentPostingEnabled;
     @Value("${bannock.blog.featuredPageSize}")
@@ -55,6 +121,13 @@ public class HibernateBlogServiceImpl implements BlogService {
     private int maxCommentNewlineCount = 15;
     @Value("${bannock.hibernateBlog.commentContentLogCharacterLimit}")
     private int commentContentLogCharacterLimit = 256;
+    @Value("${bannock.hibernateBlog.stalePublishMillis}")
+    private long stalePublishMillis = 3600000;
+
+    /**
+     * Posts whose files are being published by this server, which must not be removed as stale
+     */
+    private final Set<Long> publishingPostIds = ConcurrentHashMap.newKeySet();
 
     @Override
     @Transactional(readOnly = true)
@@ -64,6 +137,92 @@ public class HibernateBlogServiceImpl implements BlogService {
         return toDto(post);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public PostView getPostView(long postId, int commentPage,
+                                PageCursor commentsAfter, PageCursor commentsBefore) throws BlogServiceException {
+        List<PostEntity> postGraphs = getPostGraphs(List.of(postId));
+        if (postGraphs.isEmpty()) {
+            logger.warn("Could not find post using provided id, postId={}", postId);
+            throw new BlogServiceException("Post not found for given id");
+        }
+        Post post = toDto(postGraphs.get(0));
+        if (post.deleted()){
+            logger.warn("Could not get post view because the post has been deleted, postId={}", postId);
+            throw new BlogServiceException("Can not get post because it has been deleted", "Post has been deleted");
+        }
+
+        int totalCommentPages = getTotalPages(blogCountsCache.getCommentCount(postId), commentPageSize);
+        // Seeks read one comment more than fits on the page, so we know if there's another page after it
+        List<CommentEntity> comments;
+        boolean hasNewerComments, hasOlderComments;
+        if (commentsAfter != null){
+            commentPage = -1;
+            comments = getCommentsOlderThan(postId, commentsAfter, commentPageSize + 1);
+            hasOlderComments = trimToPage(comments, false);
+            hasNewerComments = true;
+        }else if (commentsBefore != null){
+            commentPage = -1;
+            comments = getCommentsNewerThan(postId, commentsBefore, commentPageSize + 1);
+            hasNewerComments = trimToPage(comments, true);
+            hasOlderComments = true;
+        }else if (commentPage < 0){
+            // The last page holds the oldest comments, so it's read from the other end of the index. It's always
+            // a full page instead of being sized from the comment count, which is only kept approximately
+            commentPage = Math.max(0, totalCommentPages - 1);
+            comments = new ArrayList<>(commentRepository.findByPostIdAndDeletedFalseOrderByMillisPostedAscCommentIdAsc(
+                    postId, Pageable.ofSize(commentPageSize + 1)));
+            hasNewerComments = trimToPage(comments, false);
+            Collections.reverse(comments);
+            hasOlderComments = false;
+        }else{
+            comments = getCommentPage(postId, commentPage);
+            hasNewerComments = commentPage > 0;
+            hasOlderComments = commentPage < totalCommentPages - 1;
+        }
+
+        // The post's author and every comment author are fetched together
+        List<Long> userIds = new ArrayList<>();
+        userIds.add(post.authorId());
+        comments.forEach(comment -> userIds.add(comment.getAuthorId()));
+        Map<Long, User> uidToUserMappings = userService.getManyUsersMappedByIds(userIds);
+        User author = uidToUserMappings.get(post.authorId());
+        if (author == null){
+            logger.warn("Could not find author for post, postId={}, authorId={}", postId, post.authorId());
+            throw new BlogServiceException("No user with that id exists.",
+                    "Id \"%s\" does not exist".formatted(post.authorId()));
+        }
+        Map<Long, User> commentAuthors = new HashMap<>();
+        comments.forEach(comment -> {
+            User commentAuthor = uidToUserMappings.get(comment.getAuthorId());
+            if (commentAuthor != null)
+                commentAuthors.put(commentAuthor.getId(), commentAuthor);
+        });
+
+        List<Comment> commentDtos = comments.stream().map(this::toCommentDto).toList();
+        PageCursor newerCommentsCursor = hasNewerComments && !commentDtos.isEmpty() ?
+                PageCursor.of(commentDtos.get(0)) : null;
+        PageCursor olderCommentsCursor = hasOlderComments && !commentDtos.isEmpty() ?
+                PageCursor.of(commentDtos.get(commentDtos.size() - 1)) : null;
+        logger.info("Found post view with post id, postId={}, commentPage={}, commentCount={}",
+                postId, commentPage, comments.size());
+        return new PostView(post, author, commentDtos, commentAuthors, commentPage, totalCommentPages,
+                newerCommentsCursor, olderCommentsCursor);
+    }
+
+    /**
+     * Removes the extra comment read to check if there's another page
+     * @param comments The comments, with up to one more than fits on a page
+     * @param fromStart True to remove the comment from the start of the list, otherwise it's removed from the end
+     * @return True if there was an extra comment
+     */
+    private boolean trimToPage(List<CommentEntity> comments, boolean fromStart){
+        if (comments.size() <= commentPageSize)
+            return false;
+        comments.remove(fromStart ? 0 : comments.size() - 1);
+        return true;
+    }
+
     @Override
     @Transactional(readOnly = true)
     public InputStream getIndex(long postId) throws BlogServiceException {
@@ -95,12 +254,121 @@ public class HibernateBlogServiceImpl implements BlogService {
     }
 
     @Override
-    @Transactional
+    public AssetView getAssetView(long postId, String assetPath) throws BlogServiceException {
+        AssetRecord asset = readOnlyTransactionTemplate.execute(status -> new AssetRecord(
+                postRepository.findDeletedByPostId(postId), postRepository.findAssetMimeType(postId, assetPath)));
+        if (asset.deleted().isEmpty()){
+            logger.warn("Could not get post asset because post does not exist, postId={}", postId);
+            throw new BlogServiceException("Post does not exist");
+        }
+        if (asset.deleted().get()){
+            logger.warn("Could not get post asset because the post has been deleted, postId={}", postId);
+            throw new BlogServiceException("Can not get asset because the post has been deleted",
+                    "Post has been deleted");
+        }
+
+        try {
+            StoredFile file = storageService.loadFile(getStorageCategoryForPostAssets(postId), assetPath);
+            Optional<StoredFile> gzippedFile = storageService.findFile(
+                    getStorageCategoryForGzippedPostAssets(postId), assetPath);
+            if (asset.mimeType().isEmpty())
+                logger.info("Asset has no recorded mime type, so it will be detected, postId={}, assetPath={}",
+                        postId, assetPath);
+            return new AssetView(file, gzippedFile.orElse(null), asset.mimeType().isPresent() ? asset.mimeType().get()
+                    : detectMimeType(getStorageCategoryForPostAssets(postId), assetPath));
+        } catch (IOException e) {
+            logger.warn("Failed to load blog post asset, postId={}, assetPath={}", postId, assetPath);
+            throw new BlogServiceException("Something went wrong while loading asset", e.getMessage());
+        }
+    }
+
+    /**
+     * What the database knows about an asset
+     * @param deleted Whether the asset's post has been deleted, or empty if the post doesn't exist
+     * @param mimeType The asset's recorded mime type, if it has one
+     */
+    private record AssetRecord(Optional<Boolean> deleted, Optional<String> mimeType) {}
+
+    @Override
     public Post makePost(String titleHtml, String titlePlaintext, long authorId, String[] tags, Asset index, Asset... assets) throws BlogServiceException {
+        Objects.requireNonNull(index);
+        List<Callable<StagedAsset>> stageTasks = new ArrayList<>();
+        stageTasks.add(() -> stageAsset(index.name(), index.data()));
+        if (assets != null) {
+            for (Asset asset : assets) {
+                if (!asset.name().isEmpty())
+                    stageTasks.add(() -> stageAsset(asset.name(), asset.data()));
+            }
+        }
+
+        List<StagedAsset> stagedAssets = new ArrayList<>();
+        try {
+            runOnStorageExecutor(stageTasks, stagedAssets);
+        } catch (BlogServiceException e) {
+            discardStagedAssets(stagedAssets);
+            throw e;
+        }
+        return makePost(titleHtml, titlePlaintext, authorId, tags,
+                stagedAssets.get(0), stagedAssets.subList(1, stagedAssets.size()));
+    }
+
+    @Override
+    public StagedAsset stageAsset(String name, InputStream data) throws BlogServiceException {
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(data);
+        try {
+            return new StagedAsset(name, storageService.stage(data, maxAssetBytes));
+        } catch (DataTooLargeException e) {
+            logger.info("Blog post asset was too large to stage, assetPath=\"{}\", maxAssetBytes={}",
+                    name, maxAssetBytes);
+            throw new BlogServiceException("Files must not be larger than %s bytes".formatted(maxAssetBytes));
+        } catch (IOException e) {
+            logger.warn("Failed to stage blog post asset, assetPath=\"{}\"", name, e);
+            // The cause is kept so callers can tell when reading the data failed, such as when a request limit is hit
+            throw new BlogServiceException("Something went wrong while uploading your files. Please try again later.",
+                    "Failed to stage blog post asset", e);
+        }
+    }
+
+    @Override
+    public Post makePost(String titleHtml, String titlePlaintext, long authorId, String[] tags,
+                         StagedAsset index, List<StagedAsset> assets) throws BlogServiceException {
         Objects.requireNonNull(titleHtml);
         Objects.requireNonNull(index);
         if (assets == null)
-            assets = new Asset[0];
+            assets = List.of();
+        List<StagedAsset> allStagedAssets = new ArrayList<>(assets);
+        allStagedAssets.add(index);
+
+        // Published files have already been moved out of staging, so this only removes what was left behind
+        try {
+            return makePostFromStagedAssets(titleHtml, titlePlaintext, authorId, tags, index, assets);
+        } finally {
+            discardStagedAssets(allStagedAssets);
+        }
+    }
+
+    @Override
+    public void discardStagedAssets(List<StagedAsset> stagedAssets) {
+        if (stagedAssets == null)
+            return;
+        for (StagedAsset stagedAsset : stagedAssets) {
+            if (stagedAsset != null)
+                storageService.discard(stagedAsset.file());
+        }
+    }
+
+    /**
+     * Creates a post in three steps so the database is never kept waiting on file work:
+     * 1. Detect mime types and make compressed copies of the staged assets, in parallel
+     * 2. Save the post as deleted and publishing, so it can't be seen before its files exist
+     * 3. Publish every file in parallel, then mark the post as not deleted
+     * If anything fails after the post is saved, its published files and row are removed. If the server stops
+     * before then, {@link #removeStalePosts()} removes them instead
+     * @see #makePost(String, String, long, String[], StagedAsset, List)
+     */
+    private Post makePostFromStagedAssets(String titleHtml, String titlePlaintext, long authorId, String[] tags,
+                                          StagedAsset index, List<StagedAsset> assets) throws BlogServiceException {
         if (titleHtml.length() > 256){
             logger.warn("Failed to create new blog post because title length is more than 256 " +
                     "characters long, authorId={} title=\"{}\"", authorId, titleHtml);
@@ -108,66 +376,237 @@ public class HibernateBlogServiceImpl implements BlogService {
         }
 
         if (!persistOriginalFileNames){
-            replaceAssetFileNames(assets);
-            Asset[] indexArray = new Asset[]{index};
-            replaceAssetFileNames(indexArray);
-            index = indexArray[0];
+            assets = replaceAssetFileNames(assets);
+            index = replaceAssetFileNames(List.of(index)).get(0);
             logger.info("Persist original file names are disabled, so all files names submitted " +
                     "have been remapped. Content of the files have remained unchanged, authorId={}", authorId);
         }
         if (index.name().isEmpty())
-            index = new Asset("index.html", index.data());
-        PostEntity post = new PostEntity(
-                authorId, System.currentTimeMillis(),
-                titleHtml, titlePlaintext, Arrays.asList(tags),
-                index.name(), Arrays.stream(assets).map(Asset::name).toList()
-        );
-        post = postRepository.save(post);
+            index = new StagedAsset("index.html", index.file());
 
+        List<PreparedAsset> preparedAssets = new ArrayList<>();
         try {
-            String postStorageCategory = getStorageCategoryForPost(post.getPostId());
-            storageService.save(index.data(), postStorageCategory, index.name());
-            logger.info("Saved blog post index, postId={}, indexPath=\"{}\"", post.getPostId(), index.name());
-
-            String assetsStorageCategory = getStorageCategoryForPostAssets(post.getPostId());
-            for (Asset asset : assets) {
-                if (asset.name().isEmpty())
-                    continue;
-                storageService.save(asset.data(), assetsStorageCategory, asset.name());
-                logger.info("Saved blog post asset, postId={}, assetPath=\"{}\"", post.getPostId(), asset.name());
+            runOnStorageExecutor(assets.stream()
+                    .map(asset -> (Callable<PreparedAsset>) () -> prepareAsset(asset)).toList(), preparedAssets);
+
+            PostEntity post = new PostEntity(
+                    authorId, System.currentTimeMillis(),
+                    titleHtml, titlePlaintext, Arrays.asList(tags),
+                    index.name(), assets.stream().map(StagedAsset::name).toList(), true
+            );
+            post.setPublishing(true);
+            for (PreparedAsset preparedAsset : preparedAssets)
+                post.getAssetMimeTypes().put(preparedAsset.asset().name(), preparedAsset.mimeType());
+            transactionTemplate.executeWithoutResult(status -> postRepository.save(post));
+            long postId = post.getPostId();
+
+            List<PendingFile> pendingFiles = new ArrayList<>();
+            pendingFiles.add(new PendingFile(index.file(), getStorageCategoryForPost(postId), index.name()));
+            for (PreparedAsset preparedAsset : preparedAssets) {
+                String assetPath = preparedAsset.asset().name();
+                pendingFiles.add(new PendingFile(preparedAsset.asset().file(),
+                        getStorageCategoryForPostAssets(postId), assetPath));
+                if (preparedAsset.gzippedFile() != null)
+                    pendingFiles.add(new PendingFile(preparedAsset.gzippedFile(),
+                            getStorageCategoryForGzippedPostAssets(postId), assetPath));
             }
-        } catch (IOException e) {
-            logger.warn("Failed to create new blog post, authorId={}", authorId, e);
-            throw new RuntimeException(e);
+            publishingPostIds.add(postId);
+            try {
+                runOnStorageExecutor(pendingFiles.stream().map(pendingFile -> (Callable<PendingFile>) () -> {
+                    storageService.publish(pendingFile.file(), pendingFile.category(), pendingFile.identifier());
+                    return pendingFile;
+                }).toList(), new ArrayList<>());
+                Integer publishedPosts = transactionTemplate.execute(status -> postRepository.finishPublishing(postId));
+                if (publishedPosts == null || publishedPosts == 0){
+                    logger.warn("Post was removed before it finished publishing, postId={}", postId);
+                    throw new BlogServiceException("Something went wrong while saving your post. Please try again later.",
+                            "Post was removed before it finished publishing");
+                }
+            } catch (BlogServiceException | RuntimeException e) {
+                removeFailedPost(postId, index.name(), assets.stream().map(StagedAsset::name).toList());
+                throw e;
+            } finally {
+                publishingPostIds.remove(postId);
+            }
+            post.setDeleted(false);
+            post.setPublishing(false);
+
+            blogCountsCache.postMade();
+            logger.info("User created new blog post, authorId={}, postId={}, indexPath=\"{}\", assetCount={}",
+                    authorId, postId, index.name(), assets.size());
+            return toDto(post);
+        } finally {
+            for (PreparedAsset preparedAsset : preparedAssets)
+                storageService.discard(preparedAsset.gzippedFile());
         }
+    }
 
-        logger.info("User created new blog post, authorId={}, postId={}", authorId, post.getPostId());
+    /**
+     * Detects the mime type of a staged asset and makes a compressed copy of it if it's worth compressing
+     * @param asset The staged asset
+     * @return The asset along with its mime type and compressed copy
+     * @throws IOException If something goes wrong while reading or compressing the asset
+     */
+    private PreparedAsset prepareAsset(StagedAsset asset) throws IOException {
+        String mimeType = detectMimeType(asset);
+        StagedFile gzippedFile = isPrecompressible(mimeType) ? stageGzippedAsset(asset) : null;
+        return new PreparedAsset(asset, mimeType, gzippedFile);
+    }
 
-        return toDto(post);
+    /**
+     * Removes posts that were never finished being published, along with any of their files that were, such as
+     * when the server stopped part way through making one. Runs on startup and then periodically
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${bannock.hibernateBlog.stalePublishMillis}")
+    public void removeStalePosts(){
+        long publishedBeforeMillis = System.currentTimeMillis() - stalePublishMillis;
+        List<PostEntity> stalePosts = transactionTemplate.execute(status -> {
+            List<Long> postIds = postRepository.findPostIdsPublishingBefore(publishedBeforeMillis);
+            return postIds.isEmpty() ? List.of() : postRepository.findWithAssetPathsByPostIdIn(postIds);
+        });
+        if (stalePosts == null || stalePosts.isEmpty())
+            return;
+        for (PostEntity stalePost : stalePosts) {
+            if (publishingPostIds.contains(stalePost.getPostId()))
+                continue;
+            logger.warn("Found post that was never finished being published, postId={}, millisPosted={}",
+                    stalePost.getPostId(), stalePost.getMillisPosted());
+            removeFailedPost(stalePost.getPostId(), stalePost.getIndexPath(), stalePost.getAssetPaths());
+        }
+    }
+
+    /**
+     * Deletes everything that was stored for a post that could not be fully created
+     * @param postId The id of the post
+     * @param indexPath The path of the post's index
+     * @param assetPaths The paths of the post's assets
+     */
+    private void removeFailedPost(long postId, String indexPath, List<String> assetPaths){
+        deleteFileOfFailedPost(postId, getStorageCategoryForPost(postId), indexPath);
+        for (String assetPath : assetPaths) {
+            deleteFileOfFailedPost(postId, getStorageCategoryForPostAssets(postId), assetPath);
+            deleteFileOfFailedPost(postId, getStorageCategoryForGzippedPostAssets(postId), assetPath);
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> postRepository.deleteById(postId));
+        } catch (RuntimeException e) {
+            // The post is still marked as deleted, so it will never be shown. It will be tried again later
+            logger.warn("Failed to remove post that could not be created, postId={}", postId, e);
+            return;
+        }
+        logger.info("Removed post that could not be created, postId={}", postId);
+    }
+
+    /**
+     * Deletes a file of a post that could not be fully created, if it was stored
+     * @param postId The id of the post
+     * @param category The category of the file
+     * @param identifier The identifier of the file
+     */
+    private void deleteFileOfFailedPost(long postId, String category, String identifier){
+        try {
+            storageService.delete(category, identifier);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to delete file of post that could not be created, postId={}, " +
+                    "category=\"{}\", id=\"{}\"", postId, category, identifier, e);
+        }
+    }
+
+    /**
+     * Runs tasks on the storage io executor and waits for every one of them to finish
+     * @param tasks The tasks to run
+     * @param completed Has the results of the tasks that succeeded added to it, even if others failed
+     * @throws BlogServiceException If any of the tasks failed
+     */
+    private <T> void runOnStorageExecutor(List<Callable<T>> tasks, List<T> completed) throws BlogServiceException {
+        List<Future<T>> futures;
+        try {
+            futures = storageIoExecutor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BlogServiceException("Something went wrong while saving your post. Please try again later.",
+                    "Interrupted while waiting for storage tasks");
+        }
+
+        Throwable failure = null;
+        for (Future<T> future : futures) {
+            try {
+                completed.add(future.get());
+            } catch (ExecutionException | InterruptedException | CancellationException e) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                if (failure == null)
+                    failure = cause;
+                else
+                    failure.addSuppressed(cause);
+            }
+        }
+        if (failure instanceof BlogServiceException blogServiceException)
+            throw blogServiceException;
+        if (failure != null) {
+            logger.warn("Storage task failed while making post, taskCount={}", tasks.size(), failure);
+            throw new BlogServiceException("Something went wrong while saving your post. Please try again later.",
+                    "Storage task failed while making post");
+        }
     }
 
     @Override
     @Transactional
     public void deletePost(long postId) throws BlogServiceException {
         PostEntity post = getPostEntity(postId);
+        if (!post.isDeleted())
+            blogCountsCache.postDeleted();
         post.setDeleted(true);
         postRepository.save(post);
+        postIndexCache.invalidate(postId);
+        postPageCache.invalidate(postId);
     }
 
     @Override
     @Transactional(readOnly = true)
     public List<Post> getFeaturedPosts(int page) {
-        Page<PostEntity> postsOnPage = postRepository
-                .findByDeletedFalseOrderByMillisPostedDesc(Pageable.ofSize(featuredPageSize).withPage(page));
-        return postsOnPage.stream().map(this::toDto).toList();
+        List<Long> postIds = postRepository
+                .findPostIdsByDeletedFalseOrderByMillisPostedDesc(Pageable.ofSize(featuredPageSize).withPage(page));
+        return getPostGraphs(postIds).stream().map(this::toDto).toList();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Post> getFeaturedPostsAfter(PageCursor cursor) {
+        List<Long> postIds = postRepository
+                .findPostIdsOlderThan(cursor.millisPosted(), cursor.id(), Pageable.ofSize(featuredPageSize));
+        return getPostGraphs(postIds).stream().map(this::toDto).toList();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Post> getFeaturedPostsBefore(PageCursor cursor) {
+        List<Long> postIds = new ArrayList<>(postRepository
+                .findPostIdsNewerThan(cursor.millisPosted(), cursor.id(), Pageable.ofSize(featuredPageSize)));
+        Collections.reverse(postIds);
+        return getPostGraphs(postIds).stream().map(this::toDto).toList();
+    }
+
+    /**
+     * Use @Transactional!!
+     * Loads posts along with their tags and asset paths using a fixed amount of queries, no matter how
+     * many posts are being loaded. Both collection queries must run in the same transaction so they
+     * initialize the same entity instances
+     * @param postIds The ids of the posts to load
+     * @return The post entities with their collections initialized, in the same order as the provided ids
+     */
+    private List<PostEntity> getPostGraphs(List<Long> postIds){
+        if (postIds.isEmpty())
+            return List.of();
+        Map<Long, PostEntity> postIdsToPosts = new HashMap<>();
+        postRepository.findWithTagsByPostIdIn(postIds).forEach(post -> postIdsToPosts.put(post.getPostId(), post));
+        postRepository.findWithAssetPathsByPostIdIn(postIds);
+        return postIds.stream().map(postIdsToPosts::get).filter(Objects::nonNull).toList();
     }
 
     @Override
     @Transactional(readOnly = true)
     public int getFeaturedPostsTotalPages() {
-        Page<PostEntity> postsOnPage = postRepository
-                .findByDeletedFalseOrderByMillisPostedDesc(Pageable.ofSize(featuredPageSize));
-        return postsOnPage.getTotalPages();
+        return getTotalPages(blogCountsCache.getFeaturedPostCount(), featuredPageSize);
     }
 
     @Override
@@ -208,6 +647,7 @@ public class HibernateBlogServiceImpl implements BlogService {
 
         CommentEntity comment = new CommentEntity(postId, commentAuthorId, System.currentTimeMillis(), content, commentAuthorIp);
         commentRepository.save(comment);
+        blogCountsCache.commentMade(postId);
         logger.info("User make comment on post, authorId={}, postId={}, content(log formatted)={}",
                 commentAuthorId, postId, getCommentLogContent(content));
         return toCommentDto(comment);
@@ -216,45 +656,75 @@ public class HibernateBlogServiceImpl implements BlogService {
     @Override
     @Transactional(readOnly = true)
     public List<Comment> getComments(long postId, int page) throws BlogServiceException {
+        checkCommentsReadable(postId);
         return getCommentPage(postId, page).stream().map(this::toCommentDto).toList();
     }
 
-    @Override
-    @Transactional(readOnly = true)
-    public int getCommentsTotalPages(long postId) throws BlogServiceException {
-        Page<CommentEntity> comments = getCommentPage(postId);
-        return comments.getTotalPages();
+    /**
+     * Use @Transactional!!
+     * @param postId The post to get the comments for
+     * @param page The page of comments to get
+     * @return The comments on the page, newest first
+     */
+    private List<CommentEntity> getCommentPage(long postId, int page){
+        return commentRepository.findByPostIdAndDeletedFalseOrderByMillisPostedDescCommentIdDesc(
+                postId, Pageable.ofSize(commentPageSize).withPage(page));
     }
 
     /**
      * Use @Transactional!!
-     * Gets the first page of comments for a post
      * @param postId The post to get the comments for
-     * @return The first page of comments for a post
-     * @throws BlogServiceException If something goes wrong while getting the comments
+     * @param cursor The cursor of the last comment on the previous page
+     * @param limit The most comments to get
+     * @return The comments posted before the cursor, newest first
      */
-    private Page<CommentEntity> getCommentPage(long postId) throws BlogServiceException{
-        return getCommentPage(postId, 0);
+    private List<CommentEntity> getCommentsOlderThan(long postId, PageCursor cursor, int limit){
+        return new ArrayList<>(commentRepository.findCommentsOlderThan(postId, cursor.millisPosted(), cursor.id(),
+                Pageable.ofSize(limit)));
     }
 
     /**
      * Use @Transactional!!
-     * Gets a given page of comments for a post
      * @param postId The post to get the comments for
-     * @param page The comments page number
-     * @return The requested page of comments for a post
-     * @throws BlogServiceException If something goes wrong while getting the comments
+     * @param cursor The cursor of the first comment on the next page
+     * @param limit The most comments to get
+     * @return The comments posted after the cursor that are closest to it, newest first
      */
-    private Page<CommentEntity> getCommentPage(long postId, int page) throws BlogServiceException{
+    private List<CommentEntity> getCommentsNewerThan(long postId, PageCursor cursor, int limit){
+        List<CommentEntity> comments = new ArrayList<>(commentRepository.findCommentsNewerThan(
+                postId, cursor.millisPosted(), cursor.id(), Pageable.ofSize(limit)));
+        Collections.reverse(comments);
+        return comments;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public int getCommentsTotalPages(long postId) throws BlogServiceException {
+        checkCommentsReadable(postId);
+        return getTotalPages(blogCountsCache.getCommentCount(postId), commentPageSize);
+    }
+
+    /**
+     * @param elementCount The total amount of elements
+     * @param pageSize The amount of elements on each page
+     * @return The amount of pages needed to show every element
+     */
+    private int getTotalPages(long elementCount, int pageSize){
+        return (int)Math.ceil((double)elementCount / (double)pageSize);
+    }
+
+    /**
+     * Use @Transactional!!
+     * Makes sure a post's comments may be read
+     * @param postId The post to check
+     * @throws BlogServiceException If the post does not exist or has been deleted
+     */
+    private void checkCommentsReadable(long postId) throws BlogServiceException {
         PostEntity post = getPostEntity(postId);
         if (post.isDeleted()) {
-            logger.warn("User attempted to access comments on deleted post, postId={}, commentsPage={}",
-                    postId, page);
+            logger.warn("User attempted to access comments on deleted post, postId={}", postId);
             throw new BlogServiceException("Cannot get comments because post has been deleted");
         }
-
-        Pageable pageable = Pageable.ofSize(commentPageSize).withPage(page);
-        return commentRepository.findByPostIdAndDeletedFalseOrderByMillisPostedDesc(postId, pageable);
     }
 
     /**
@@ -262,7 +732,7 @@ public class HibernateBlogServiceImpl implements BlogService {
      * @return The dto equivalent of the entity
      */
     private Comment toCommentDto(CommentEntity entity){
-        return new Comment(entity.getPostId(), entity.getAuthorId(), entity.getMillisPosted(), entity.getContent());
+        return new Comment(entity.getCommentId(), entity.getPostId(), entity.getAuthorId(), entity.getMillisPosted(), entity.getContent());
     }
 
     /**
@@ -292,6 +762,95 @@ public class HibernateBlogServiceImpl implements BlogService {
         return post.get();
     }
 
+    /**
+     * Detects the mime type of some stored data using its name and, if needed, its first few bytes
+     * @param category The storage category the data is in
+     * @param identifier The identifier of the data
+     * @return The data's mime type, or application/octet-stream if it could not be detected
+     * @throws IOException If something goes wrong while reading the data
+     */
+    private String detectMimeType(String category, String identifier) throws IOException {
+        try(InputStream dataStream = storageService.load(category, identifier)){
+            return detectMimeType(identifier, dataStream);
+        }
+    }
+
+    /**
+     * @param asset The staged asset to detect the mime type of
+     * @return The asset's mime type, or application/octet-stream if it could not be detected
+     * @throws IOException If something goes wrong while reading the asset
+     */
+    private String detectMimeType(StagedAsset asset) throws IOException {
+        try(InputStream dataStream = Files.newInputStream(asset.file().path())){
+            return detectMimeType(asset.name(), dataStream);
+        }
+    }
+
+    /**
+     * @param name The name of the data
+     * @param dataStream The data
+     * @return The data's mime type, or application/octet-stream if it could not be detected
+     */
+    private String detectMimeType(String name, InputStream dataStream){
+        try {
+            return mimeTypeDetector.detectMimeType(name, dataStream);
+        } catch (GetBytesException e) {
+            logger.warn("Failed to detect mime type, falling back to the default, name=\"{}\"", name, e);
+            return "application/octet-stream";
+        }
+    }
+
+    /**
+     * @param mimeType The mime type of an asset
+     * @return True if assets of the mime type should have a compressed copy made when they're uploaded
+     */
+    private boolean isPrecompressible(String mimeType){
+        MimeType assetMimeType = MimeTypeUtils.parseMimeType(mimeType);
+        return Arrays.stream(precompressedMimeTypes)
+                .map(MimeTypeUtils::parseMimeType)
+                .anyMatch(precompressedMimeType -> precompressedMimeType.includes(assetMimeType));
+    }
+
+    /**
+     * Stages a gzip compressed copy of a staged asset so it doesn't need to be compressed
+     * each time it's requested. The copy is compressed into a temporary file first and is only staged
+     * if it ends up smaller than the original
+     * @param asset The staged asset
+     * @return The staged compressed copy, or null if the asset isn't worth compressing
+     * @throws IOException If something goes wrong while compressing or staging the asset
+     */
+    private StagedFile stageGzippedAsset(StagedAsset asset) throws IOException {
+        if (asset.file().size() < precompressMinBytes)
+            return null;
+
+        long compressStartMillis = System.currentTimeMillis();
+        Path gzippedFile = Files.createTempFile("gzippedAsset", ".gz");
+        try {
+            try(InputStream assetStream = Files.newInputStream(asset.file().path());
+                OutputStream gzipStream = new BestCompressionGzipOutputStream(Files.newOutputStream(gzippedFile),
+                        ioTransferBuffer)){
+                assetStream.transferTo(gzipStream);
+            }
+
+            long gzippedSize = Files.size(gzippedFile);
+            if (gzippedSize >= asset.file().size()){
+                logger.info("Did not make gzipped blog post asset because it was not any smaller, " +
+                        "assetPath=\"{}\", size={}, gzippedSize={}", asset.name(), asset.file().size(), gzippedSize);
+                return null;
+            }
+            StagedFile stagedGzippedFile;
+            try(InputStream gzippedStream = Files.newInputStream(gzippedFile)){
+                stagedGzippedFile = storageService.stage(gzippedStream, -1);
+            }
+            logger.info("Made gzipped blog post asset, assetPath=\"{}\", size={}, gzippedSize={}, " +
+                    "compressTime={}ms", asset.name(), asset.file().size(), gzippedSize,
+                    System.currentTimeMillis() - compressStartMillis);
+            return stagedGzippedFile;
+        } finally {
+            Files.deleteIfExists(gzippedFile);
+        }
+    }
+
     /**
      * @param postId The post id to get the storage category for
      * @return The storage category where files for the post are stored
@@ -308,15 +867,25 @@ public class HibernateBlogServiceImpl implements BlogService {
         return "%s/assets".formatted(getStorageCategoryForPost(postId));
     }
 
+    /**
+     * @param postId The post id to get the gzipped assets storage category for
+     * @return The storage category where gzip compressed copies of the post's assets are stored
+     */
+    private String getStorageCategoryForGzippedPostAssets(long postId){
+        return "%s/precompressed/gzip".formatted(getStorageCategoryForPost(postId));
+    }
+
     /**
      * Replaces the file names for the given assets to randomly created, but recreatable names
      * @param assets The assets
+     * @return The assets with their new names, in the same order
      */
-    private void replaceAssetFileNames(Asset... assets){
-        for (int assetIndex = 0; assetIndex < assets.length; assetIndex++){
-            Asset oldAsset = assets[assetIndex];
-            assets[assetIndex] = new Asset(getNameForIndex(assetIndex), oldAsset.data());
+    private List<StagedAsset> replaceAssetFileNames(List<StagedAsset> assets){
+        List<StagedAsset> renamedAssets = new ArrayList<>(assets.size());
+        for (int assetIndex = 0; assetIndex < assets.size(); assetIndex++){
+            renamedAssets.add(new StagedAsset(getNameForIndex(assetIndex), assets.get(assetIndex).file()));
         }
+        return renamedAssets;
     }
 
     /**
@@ -357,4 +926,29 @@ public class HibernateBlogServiceImpl implements BlogService {
         );
     }
 
+    /**
+     * A staged asset that's ready to be published
+     * @param asset The staged asset
+     * @param mimeType The asset's mime type
+     * @param gzippedFile The staged compressed copy of the asset, or null if it has none
+     */
+    private record PreparedAsset(StagedAsset asset, String mimeType, StagedFile gzippedFile) {}
+
+    /**
+     * A staged file and where it's going to be published to
+     */
+    private record PendingFile(StagedFile file, String category, String identifier) {}
+
+    /**
+     * Compresses as much as gzip allows. Assets are only ever compressed once, so we may as well spend the time
+     */
+    private static class BestCompressionGzipOutputStream extends GZIPOutputStream {
+
+        private BestCompressionGzipOutputStream(OutputStream out, int size) throws IOException {
+            super(out, size);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+
+    }
+
 }
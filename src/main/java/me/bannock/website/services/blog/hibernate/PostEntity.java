@@ -9,17 +9,21 @@ import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
 import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
+import jakarta.persistence.MapKeyColumn;
 import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 @Entity
 @Table(name = "blog_posts", indexes = {
         @Index(columnList = "post_id", unique = true),
-        @Index(columnList = "authorId")
+        @Index(columnList = "authorId"),
+        @Index(columnList = "deleted, millis_posted, post_id")
 })
 public class PostEntity {
 
@@ -88,9 +92,23 @@ public class PostEntity {
     })
     private List<String> assetPaths;
 
+    @Column(name = "mime_type")
+    @MapKeyColumn(name = "asset_path")
+    @ElementCollection(fetch = FetchType.LAZY)
+    @CollectionTable(name = "blog_post_asset_mime_types", joinColumns = @JoinColumn(name = "post_id"), indexes = {
+            @Index(columnList = "post_id, asset_path", unique = true)
+    })
+    private Map<String, String> assetMimeTypes = new HashMap<>();
+
     @Column(name = "deleted")
     private boolean deleted;
 
+    /**
+     * Set while the post's files are being published. Posts left like this were never finished
+     */
+    @Column(name = "publishing")
+    private boolean publishing;
+
     private void setPostId(long postId) {
         this.postId = postId;
     }
@@ -159,6 +177,18 @@ public class PostEntity {
         this.assetPaths = assetPaths;
     }
 
+    /**
+     * @return The mime types of the post's assets keyed by the assets' paths. Posts made before mime types
+     * were recorded will have no entries
+     */
+    public Map<String, String> getAssetMimeTypes() {
+        return assetMimeTypes;
+    }
+
+    public void setAssetMimeTypes(Map<String, String> assetMimeTypes) {
+        this.assetMimeTypes = assetMimeTypes;
+    }
+
     public boolean isDeleted() {
         return deleted;
     }
@@ -167,4 +197,12 @@ public class PostEntity {
         this.deleted = deleted;
     }
 
+    public boolean isPublishing() {
+        return publishing;
+    }
+
+    public void setPublishing(boolean publishing) {
+        this.publishing = publishing;
+    }
+
 }
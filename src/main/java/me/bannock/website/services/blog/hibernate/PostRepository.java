@@ -3,8 +3,15 @@ package me.bannock.website.services.blog.hibernate;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 @Repository
 public interface PostRepository extends JpaRepository<PostEntity, Long> {
 
@@ -14,4 +21,94 @@ public interface PostRepository extends JpaRepository<PostEntity, Long> {
      */
     Page<PostEntity> findByDeletedFalseOrderByMillisPostedDesc(Pageable pageable);
 
+    /**
+     * @return The amount of posts that have not been deleted
+     */
+    long countByDeletedFalse();
+
+    /**
+     * Only selects the ids so the page can be limited in the database without dragging any
+     * of the post's collections along with it. No count query is run for this method
+     * @param pageable The page
+     * @return The ids of the posts on the page ordered by the date they were posted desc
+     */
+    @Query("select p.postId from PostEntity p where p.deleted = false order by p.millisPosted desc, p.postId desc")
+    List<Long> findPostIdsByDeletedFalseOrderByMillisPostedDesc(Pageable pageable);
+
+    /**
+     * Seeks to the posts made before a given post
+     * @param millisPosted The time the given post was made
+     * @param postId The id of the given post
+     * @param pageable The page configuration; only the size is used
+     * @return The ids of the posts made before the given post ordered by the date they were posted desc
+     */
+    @Query("select p.postId from PostEntity p where p.deleted = false and " +
+            "(p.millisPosted < :millisPosted or (p.millisPosted = :millisPosted and p.postId < :postId)) " +
+            "order by p.millisPosted desc, p.postId desc")
+    List<Long> findPostIdsOlderThan(@Param("millisPosted") long millisPosted, @Param("postId") long postId,
+                                    Pageable pageable);
+
+    /**
+     * Seeks to the posts made after a given post
+     * @param millisPosted The time the given post was made
+     * @param postId The id of the given post
+     * @param pageable The page configuration; only the size is used
+     * @return The ids of the posts made after the given post ordered by the date they were posted asc
+     */
+    @Query("select p.postId from PostEntity p where p.deleted = false and " +
+            "(p.millisPosted > :millisPosted or (p.millisPosted = :millisPosted and p.postId > :postId)) " +
+            "order by p.millisPosted asc, p.postId asc")
+    List<Long> findPostIdsNewerThan(@Param("millisPosted") long millisPosted, @Param("postId") long postId,
+                                    Pageable pageable);
+
+    /**
+     * Loads posts with their tags initialized in a single query
+     * @param postIds The ids of the posts to load
+     * @return The posts, in no particular order
+     */
+    @Query("select distinct p from PostEntity p left join fetch p.tags where p.postId in :postIds")
+    List<PostEntity> findWithTagsByPostIdIn(@Param("postIds") Collection<Long> postIds);
+
+    /**
+     * Loads posts with their asset paths initialized in a single query. This is kept separate from
+     * {@link #findWithTagsByPostIdIn(Collection)} because fetching both collections at once would
+     * multiply the rows returned by the database
+     * @param postIds The ids of the posts to load
+     * @return The posts, in no particular order
+     */
+    @Query("select distinct p from PostEntity p left join fetch p.assetPaths where p.postId in :postIds")
+    List<PostEntity> findWithAssetPathsByPostIdIn(@Param("postIds") Collection<Long> postIds);
+
+    /**
+     * @param postId The id of the post
+     * @return Whether the post is deleted, or empty if it doesn't exist
+     */
+    @Query("select p.deleted from PostEntity p where p.postId = :postId")
+    Optional<Boolean> findDeletedByPostId(@Param("postId") long postId);
+
+    /**
+     * @param postId The id of the post the asset belongs to
+     * @param assetPath The path of the asset
+     * @return The mime type recorded for the asset when it was uploaded, if there is one
+     */
+    @Query("select m from PostEntity p join p.assetMimeTypes m where p.postId = :postId and key(m) = :assetPath")
+    Optional<String> findAssetMimeType(@Param("postId") long postId, @Param("assetPath") String assetPath);
+
+    /**
+     * Makes a post visible once all of its files have been published
+     * @param postId The id of the post
+     * @return The amount of posts that were updated. Zero if the post was removed while it was being published
+     */
+    @Modifying
+    @Query("update PostEntity p set p.deleted = false, p.publishing = false " +
+            "where p.postId = :postId and p.publishing = true")
+    int finishPublishing(@Param("postId") long postId);
+
+    /**
+     * @param millisPosted The time to look before
+     * @return The ids of the posts made before the given time that were never finished being published
+     */
+    @Query("select p.postId from PostEntity p where p.publishing = true and p.millisPosted < :millisPosted")
+    List<Long> findPostIdsPublishingBefore(@Param("millisPosted") long millisPosted);
+
 }
@@ -0,0 +1,21 @@
+package me.bannock.website.services.storage;
+
+import java.io.IOException;
+
+public class DataTooLargeException extends IOException {
+
+    /**
+     * @param maxBytes The most bytes the data was allowed to have
+     */
+    public DataTooLargeException(long maxBytes){
+        super("Data is larger than the %s byte limit".formatted(maxBytes));
+        this.maxBytes = maxBytes;
+    }
+
+    private final long maxBytes;
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+}
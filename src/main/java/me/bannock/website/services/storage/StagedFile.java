@@ -0,0 +1,22 @@
+package me.bannock.website.services.storage;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+public record StagedFile(Path path, long size, String sha256) {
+
+    /**
+     * Data that has been written to storage but not yet given a category or identifier.
+     * It must be either published or discarded once it's no longer needed
+     * @param path The path to the temporary file holding the data
+     * @param size The size of the data in bytes
+     * @param sha256 The hex encoded SHA-256 hash of the data, computed while it was written
+     */
+    public StagedFile {
+        Objects.requireNonNull(path);
+        if (size < 0)
+            throw new IllegalArgumentException("Size must not be negative");
+        Objects.requireNonNull(sha256);
+    }
+
+}
@@ -5,6 +5,7 @@ import org.springframework.security.access.annotation.Secured;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Optional;
 
 public interface StorageService {
 
@@ -18,6 +19,46 @@ public interface StorageService {
     @Secured(Roles.StorageServiceRoles.SAVE_DATA)
     void save(InputStream dataStream, String category, String identifier) throws IOException;
 
+    /**
+     * Streams data into a temporary file in storage without holding it in memory. The data is not readable
+     * until it's published with {@link #publish(StagedFile, String, String)}
+     * @param dataStream The data stream to stage; will not be closed after being read
+     * @param maxBytes The most bytes the data may have, or -1 for no limit
+     * @return The staged data
+     * @throws DataTooLargeException If the data has more than maxBytes bytes. Nothing is left staged
+     * @throws IOException If something goes wrong while staging the data
+     */
+    @Secured(Roles.StorageServiceRoles.SAVE_DATA)
+    StagedFile stage(InputStream dataStream, long maxBytes) throws IOException;
+
+    /**
+     * Atomically moves staged data into a category with an identifier, replacing any data already there.
+     * Readers see either the old data or all the new data, never part of it
+     * @param stagedFile The staged data to publish. Can not be used again afterward
+     * @param category The category to store the data in. Do not use user-created values
+     * @param identifier The unique identifier to match the file with.
+     * @throws IOException If something goes wrong while publishing the data
+     */
+    @Secured(Roles.StorageServiceRoles.SAVE_DATA)
+    void publish(StagedFile stagedFile, String category, String identifier) throws IOException;
+
+    /**
+     * Deletes staged data that will not be published. Does nothing if it was already published or discarded
+     * @param stagedFile The staged data to delete
+     */
+    @Secured(Roles.StorageServiceRoles.SAVE_DATA)
+    void discard(StagedFile stagedFile);
+
+    /**
+     * Deletes a specific bit of data
+     * @param category The category the data is in
+     * @param identifier The unique identifier of the data
+     * @return True if the data existed and was deleted
+     * @throws IOException If something goes wrong while deleting the data
+     */
+    @Secured(Roles.StorageServiceRoles.SAVE_DATA)
+    boolean delete(String category, String identifier) throws IOException;
+
     /**
      * Creates a stream to get a specific bit of data
      * @param category The category to load the data from. Do not use user-created values
@@ -28,4 +69,25 @@ public interface StorageService {
     @Secured(Roles.StorageServiceRoles.LOAD_DATA)
     InputStream load(String category, String identifier) throws IOException;
 
+    /**
+     * Gets a handle to the file backing a specific bit of data, so it may be transferred
+     * without being copied through the heap
+     * @param category The category to load the data from. Do not use user-created values
+     * @param identifier The unique identifier for the data we're getting.
+     * @return The file that the data is stored in
+     * @throws IOException If the data does not exist or something goes wrong while finding it
+     */
+    @Secured(Roles.StorageServiceRoles.LOAD_DATA)
+    StoredFile loadFile(String category, String identifier) throws IOException;
+
+    /**
+     * Same as {@link #loadFile(String, String)}, but for data that may not exist
+     * @param category The category to load the data from. Do not use user-created values
+     * @param identifier The unique identifier for the data we're getting.
+     * @return The file that the data is stored in, or empty if there is no data for the identifier
+     * @throws IOException If something goes wrong while finding the data
+     */
+    @Secured(Roles.StorageServiceRoles.LOAD_DATA)
+    Optional<StoredFile> findFile(String category, String identifier) throws IOException;
+
 }
@@ -0,0 +1,88 @@
+package me.bannock.website.services.storage;
+
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+public final class StoredFile {
+
+    /**
+     * @param path The path to the file on disk. Only to be read from
+     * @param size The size of the file in bytes
+     * @param lastModifiedMillis The time the file was last modified in milliseconds
+     * @param sha256Reader Reads the hex encoded SHA-256 hash of the file's data, returning null if it isn't known.
+     *                     Only called the first time the hash is asked for, since reading it may touch the disk
+     */
+    public StoredFile(Path path, long size, long lastModifiedMillis, Supplier<String> sha256Reader) {
+        Objects.requireNonNull(path);
+        Objects.requireNonNull(sha256Reader);
+        if (size < 0)
+            throw new IllegalArgumentException("Size must not be negative");
+        this.path = path;
+        this.size = size;
+        this.lastModifiedMillis = lastModifiedMillis;
+        this.sha256Reader = sha256Reader;
+    }
+
+    /**
+     * @param path The path to the file on disk. Only to be read from
+     * @param size The size of the file in bytes
+     * @param lastModifiedMillis The time the file was last modified in milliseconds
+     */
+    public StoredFile(Path path, long size, long lastModifiedMillis){
+        this(path, size, lastModifiedMillis, () -> null);
+    }
+
+    private final Path path;
+    private final long size;
+    private final long lastModifiedMillis;
+    private final Supplier<String> sha256Reader;
+
+    /**
+     * Racing threads may both read the hash, which is harmless since they'll read the same value
+     */
+    private volatile Optional<String> sha256;
+
+    public Path path() {
+        return path;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long lastModifiedMillis() {
+        return lastModifiedMillis;
+    }
+
+    /**
+     * @return The hex encoded SHA-256 hash of the file's data, if it's known
+     */
+    public Optional<String> getSha256(){
+        Optional<String> sha256 = this.sha256;
+        if (sha256 == null){
+            sha256 = Optional.ofNullable(sha256Reader.get());
+            this.sha256 = sha256;
+        }
+        return sha256;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof StoredFile that)) return false;
+        return size == that.size && lastModifiedMillis == that.lastModifiedMillis && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path, size, lastModifiedMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "StoredFile{path=%s, size=%s, lastModifiedMillis=%s}".formatted(path, size, lastModifiedMillis);
+    }
+
+}
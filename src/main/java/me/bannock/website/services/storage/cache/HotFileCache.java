@@ -0,0 +1,165 @@
+package me.bannock.website.services.storage.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import me.bannock.website.services.storage.StoredFile;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the most requested small files memory mapped so they can be sent without opening and reading
+ * them on every request. A file is only mapped once it's been requested a few times, and the least
+ * valuable files are dropped once the mapped files take up more than the byte budget. Reads are counted
+ * by the tier they were served from, either memory or disk
+ * <br/><br/>
+ * Java can only unmap a buffer once it's garbage collected, and requests may still be sending a dropped file,
+ * so dropped files stay mapped until then. While the dropped files still mapped take up more than the budget,
+ * no new files are mapped, which keeps all mapped files within twice the budget
+ */
+@Component
+public class HotFileCache {
+
+    @Autowired
+    public HotFileCache(MeterRegistry meterRegistry,
+                        @Value("${bannock.storage.hotFiles.maxWeightBytes}") long maxWeightBytes,
+                        @Value("${bannock.storage.hotFiles.maxFileBytes}") long maxFileBytes,
+                        @Value("${bannock.storage.hotFiles.promoteAfterRequests}") int promoteAfterRequests){
+        this.maxFileBytes = Math.min(maxFileBytes, Integer.MAX_VALUE);
+        this.maxWeightBytes = maxWeightBytes;
+        this.promoteAfterRequests = promoteAfterRequests;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((Path path, HotFile hotFile) -> (int)hotFile.size())
+                .removalListener(this::onHotFileRemoved)
+                .recordStats()
+                .build();
+        // Only needs to remember files long enough to see them become popular
+        this.requestCounts = Caffeine.newBuilder()
+                .maximumSize(10000)
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "storage.hotFiles");
+        Gauge.builder("storage.hotFiles.mappedBytes", cache,
+                        hotFiles -> hotFiles.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L))
+                .description("The bytes of files that are currently memory mapped")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("storage.hotFiles.droppedMappedBytes", droppedMappedBytes, AtomicLong::get)
+                .description("The bytes of dropped files that stay mapped until they're garbage collected")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.memoryReads = Counter.builder("storage.reads").tag("tier", "memory")
+                .description("Files served from the hot file tier").register(meterRegistry);
+        this.diskReads = Counter.builder("storage.reads").tag("tier", "disk")
+                .description("Files served from disk").register(meterRegistry);
+    }
+
+    private final Logger logger = LogManager.getLogger();
+    private final long maxFileBytes;
+    private final long maxWeightBytes;
+    private final int promoteAfterRequests;
+    private final Cache<Path, HotFile> cache;
+    private final Cache<Path, AtomicInteger> requestCounts;
+    private final Counter memoryReads;
+    private final Counter diskReads;
+    private final AtomicLong droppedMappedBytes = new AtomicLong();
+    private static final Cleaner MAPPING_CLEANER = Cleaner.create();
+
+    /**
+     * Records a request for a file and gets its contents if the file is hot. The file is mapped once it
+     * has been requested often enough
+     * @param file The requested file
+     * @return A read-only buffer with the file's entire contents, or empty if it should be read from disk
+     */
+    public Optional<ByteBuffer> get(StoredFile file){
+        Objects.requireNonNull(file);
+        if (file.size() == 0 || file.size() > maxFileBytes){
+            diskReads.increment();
+            return Optional.empty();
+        }
+
+        HotFile hotFile = cache.getIfPresent(file.path());
+        if (hotFile != null && hotFile.matches(file)){
+            memoryReads.increment();
+            return Optional.of(hotFile.data().asReadOnlyBuffer());
+        }
+        if (hotFile != null){
+            // Replaced since it was mapped, so it has to earn its place again
+            cache.invalidate(file.path());
+        }
+
+        int requests = requestCounts.get(file.path(), path -> new AtomicInteger()).incrementAndGet();
+        if (requests < promoteAfterRequests || droppedMappedBytes.get() > maxWeightBytes){
+            diskReads.increment();
+            return Optional.empty();
+        }
+
+        // Mapped outside of the cache so concurrent requests for other files aren't held up
+        try(FileChannel fileChannel = FileChannel.open(file.path(), StandardOpenOption.READ)){
+            hotFile = new HotFile(fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, file.size()),
+                    file.size(), file.lastModifiedMillis());
+        } catch (IOException e) {
+            logger.warn("Failed to map hot file, it will be read from disk instead, path={}", file.path(), e);
+            diskReads.increment();
+            return Optional.empty();
+        }
+        cache.put(file.path(), hotFile);
+        requestCounts.invalidate(file.path());
+        logger.debug("Mapped hot file, path={}, size={}, requests={}", file.path(), file.size(), requests);
+        memoryReads.increment();
+        return Optional.of(hotFile.data().asReadOnlyBuffer());
+    }
+
+    /**
+     * Counts a dropped file's mapping until its buffer, and every slice of it being sent, is garbage collected
+     * @param path The path of the file
+     * @param hotFile The dropped file
+     * @param cause Why it was dropped
+     */
+    private void onHotFileRemoved(Path path, HotFile hotFile, RemovalCause cause){
+        if (hotFile == null)
+            return;
+        long size = hotFile.size();
+        droppedMappedBytes.addAndGet(size);
+        MAPPING_CLEANER.register(hotFile.data(), () -> droppedMappedBytes.addAndGet(-size));
+        logger.debug("Dropped hot file, path={}, size={}, cause={}", path, size, cause);
+    }
+
+    /**
+     * @param data The mapped contents of the file
+     * @param size The size of the file when it was mapped
+     * @param lastModifiedMillis When the file was last modified when it was mapped
+     */
+    private record HotFile(MappedByteBuffer data, long size, long lastModifiedMillis) {
+
+        /**
+         * @param file The file as it currently is on disk
+         * @return True if the mapped contents are still the file's contents. Stored files are replaced by
+         * moving a newly written file into place, which gives them a new modification time
+         */
+        private boolean matches(StoredFile file){
+            return size == file.size() && lastModifiedMillis == file.lastModifiedMillis();
+        }
+
+    }
+
+}
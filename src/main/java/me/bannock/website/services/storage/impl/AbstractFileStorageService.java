@@ -0,0 +1,314 @@
+package me.bannock.website.services.storage.impl;
+
+import me.bannock.website.services.storage.DataTooLargeException;
+import me.bannock.website.services.storage.StagedFile;
+import me.bannock.website.services.storage.StorageService;
+import me.bannock.website.services.storage.StoredFile;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Staging, hashing and path validation shared by the storage services that keep their data on the local disk
+ */
+abstract class AbstractFileStorageService implements StorageService {
+
+    protected AbstractFileStorageService(){
+        this(new File("application/"));
+    }
+
+    /**
+     * @param applicationDir The directory to keep all data in
+     */
+    protected AbstractFileStorageService(File applicationDir){
+        this.applicationDir = applicationDir.getAbsoluteFile();
+        this.stagingDir = new File(this.applicationDir, ".staging");
+        if (!this.applicationDir.exists() && !this.applicationDir.mkdirs()){
+            logger.warn("Failed to create application directory. This may cause problems later, " +
+                    "path={}, canWrite={}", this.applicationDir, this.applicationDir.canWrite());
+        }
+        clearStagingDir();
+        hashAttributesSupported = supportsHashAttributes();
+    }
+
+    private final Logger logger = LogManager.getLogger();
+    protected final File applicationDir;
+
+    /**
+     * Where data is written before it's published. Kept inside the application directory
+     * so publishing is a rename on the same file system
+     */
+    protected final File stagingDir;
+
+    /**
+     * The name of the user attribute that a file's hash is stored in
+     */
+    private static final String SHA256_ATTRIBUTE = "bannock.sha256";
+    private static final int SHA256_HEX_LENGTH = 64;
+
+    /**
+     * Whether the file system supports storing hashes as file attributes. If it doesn't, stored files have no hash
+     */
+    private final boolean hashAttributesSupported;
+
+    /**
+     * Whether written files are flushed to disk before being published. Slower,
+     * but published files are never left truncated by a crash or power loss
+     */
+    @Value("${bannock.storage.fsync:false}")
+    protected boolean fsync;
+
+    /**
+     * In bytes, how much data being written between file and io+ streams at a time
+     * Common values: 1024 or 1024*16 or 1024*32
+     */
+    @Value("${bannock.ioTransferBuffer:1024}")
+    protected int ioTransferBuffer;
+
+    @Override
+    public StagedFile stage(InputStream dataStream, long maxBytes) throws IOException {
+        Objects.requireNonNull(dataStream);
+        if (!stagingDir.exists() && !stagingDir.mkdirs())
+            logger.warn("Could not create staging directory, path={}, canWrite={}",
+                    stagingDir.getAbsolutePath(), stagingDir.canWrite());
+
+        long writeStartMillis = System.currentTimeMillis();
+        Path stagedPath = Files.createTempFile(stagingDir.toPath(), "stage", ".tmp");
+        MessageDigest digest = newContentDigest();
+        long writtenBytes = 0;
+        try(FileChannel stageChannel = FileChannel.open(stagedPath, StandardOpenOption.WRITE)){
+            OutputStream stageOut = Channels.newOutputStream(stageChannel);
+            byte[] buffer = new byte[ioTransferBuffer];
+            int readBytes = 0;
+            while ((readBytes = dataStream.read(buffer, 0, buffer.length)) != -1){
+                writtenBytes += readBytes;
+                if (maxBytes >= 0 && writtenBytes > maxBytes)
+                    throw new DataTooLargeException(maxBytes);
+                digest.update(buffer, 0, readBytes);
+                stageOut.write(buffer, 0, readBytes);
+            }
+            if (fsync)
+                stageChannel.force(true);
+        }catch (IOException e){
+            deleteStagedPath(stagedPath);
+            logger.warn("Failed to stage data, stagedBytes={}, maxBytes={}, stageTime={}ms",
+                    writtenBytes, maxBytes, System.currentTimeMillis() - writeStartMillis, e);
+            throw e;
+        }
+
+        // Written before the file is published so the hash moves into place along with the data
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+        writeSha256(stagedPath, sha256);
+        logger.debug("Staged {} bytes to {} in {}ms, sha256={}", writtenBytes, stagedPath,
+                System.currentTimeMillis() - writeStartMillis, sha256);
+        return new StagedFile(stagedPath, writtenBytes, sha256);
+    }
+
+    @Override
+    public void discard(StagedFile stagedFile) {
+        if (stagedFile == null)
+            return;
+        deleteStagedPath(stagedFile.path());
+    }
+
+    @Override
+    public StoredFile loadFile(String category, String identifier) throws IOException {
+        Optional<StoredFile> file = findFile(category, identifier);
+        if (file.isEmpty()){
+            logger.warn("Could not find file to load, category={}, identifier={}", category, identifier);
+            throw new FileNotFoundException("File does not exist");
+        }
+        return file.get();
+    }
+
+    /**
+     * Atomically moves a file into place, replacing anything already there
+     * @param source The file to move. Should be in the staging directory
+     * @param target Where to move the file to
+     * @throws IOException If something goes wrong while moving the file
+     */
+    protected void moveIntoPlace(Path source, Path target) throws IOException {
+        File targetDir = target.getParent().toFile();
+        if (!targetDir.exists() && !targetDir.mkdirs())
+            logger.warn("Could not create directory to move file into, " +
+                    "This may cause issues later, path=\"{}\", canWrite={}", targetDir, targetDir.canWrite());
+
+        try{
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }catch (AtomicMoveNotSupportedException e){
+            logger.debug("Atomic move not supported, falling back to a regular move, target={}", target);
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (fsync)
+            syncDirectory(target.getParent());
+    }
+
+    /**
+     * @return A new digest for hashing stored data
+     */
+    private MessageDigest newContentDigest(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Stores a file's hash as an attribute of the file itself, so it can't be separated from the data it's for
+     * @param path The file
+     * @param sha256 The hex encoded SHA-256 hash of the file's data
+     */
+    private void writeSha256(Path path, String sha256){
+        if (!hashAttributesSupported)
+            return;
+        try {
+            Files.getFileAttributeView(path, UserDefinedFileAttributeView.class)
+                    .write(SHA256_ATTRIBUTE, StandardCharsets.US_ASCII.encode(sha256));
+        } catch (IOException e) {
+            logger.warn("Failed to store hash of file, path={}", path, e);
+        }
+    }
+
+    /**
+     * @param path The file
+     * @return The hex encoded SHA-256 hash stored with the file, or null if it has none
+     */
+    protected String readSha256(Path path){
+        if (!hashAttributesSupported)
+            return null;
+        try {
+            UserDefinedFileAttributeView attributes = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+            if (!attributes.list().contains(SHA256_ATTRIBUTE))
+                return null;
+            // Hashes are always the same length, so there's no need to ask for the attribute's size
+            ByteBuffer sha256 = ByteBuffer.allocate(SHA256_HEX_LENGTH);
+            attributes.read(SHA256_ATTRIBUTE, sha256);
+            return new String(sha256.array(), 0, sha256.position(), StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            logger.warn("Failed to read hash of file, path={}", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Flushes a directory's entries to disk so a file moved into it survives a crash. Not every
+     * platform allows directories to be opened, in which case this does nothing
+     * @param dir The directory
+     */
+    private void syncDirectory(Path dir){
+        try(FileChannel dirChannel = FileChannel.open(dir, StandardOpenOption.READ)){
+            dirChannel.force(true);
+        } catch (IOException e) {
+            logger.debug("Could not sync directory, path={}", dir, e);
+        }
+    }
+
+    /**
+     * @param stagedPath The staged file to delete; may already be gone
+     */
+    private void deleteStagedPath(Path stagedPath){
+        try {
+            Files.deleteIfExists(stagedPath);
+        } catch (IOException e) {
+            logger.warn("Failed to delete staged file, path={}", stagedPath, e);
+        }
+    }
+
+    /**
+     * @return True if hashes can be stored as attributes on files in the application directory
+     */
+    private boolean supportsHashAttributes(){
+        try {
+            if (Files.getFileStore(applicationDir.toPath()).supportsFileAttributeView(UserDefinedFileAttributeView.class))
+                return true;
+        } catch (IOException e) {
+            logger.warn("Could not check file system for attribute support, path={}", applicationDir, e);
+        }
+        logger.warn("File system does not support user file attributes, so stored files will not have hashes, " +
+                "path={}", applicationDir);
+        return false;
+    }
+
+    /**
+     * Deletes anything left in the staging directory, such as uploads that were interrupted by a shutdown
+     */
+    private void clearStagingDir(){
+        File[] staged = stagingDir.listFiles();
+        if (staged == null)
+            return;
+        for (File file : staged){
+            deleteStagedPath(file.toPath());
+        }
+        if (staged.length > 0)
+            logger.info("Cleared leftover staged files, count={}", staged.length);
+    }
+
+    /**
+     * @param rootDir The directory that all categories are in
+     * @param category The category for the file we're getting. Do not pass in user supplied  values
+     * @param identifier The identifier for the file we're mapping. Could be a user supplied value
+     * @return The file
+     * @throws IllegalArgumentException if the identifier does not pass validations
+     */
+    protected File toFile(File rootDir, String category, String identifier){
+        Objects.requireNonNull(category);
+        Objects.requireNonNull(identifier);
+
+        if (new File(identifier).isAbsolute())
+            throw new IllegalArgumentException("Identifier must not match to an absolute path");
+
+        // We move the directories found in the identifier's path to the category's so our directory
+        // traversal validation fails if the resulting file is outside the directory the intended file is located in
+        StringBuilder identifierPathBuilder = new StringBuilder();
+        String[] identifierPathParts = identifier.split("[\\\\/]");
+        int pathIndex = 0;
+        for (pathIndex = 0; pathIndex < identifierPathParts.length - 1; pathIndex++){
+            identifierPathBuilder
+                    .append(identifierPathBuilder.isEmpty() ? "" : "/")
+                    .append(identifierPathParts[pathIndex]);
+        }
+        identifier = identifierPathParts[pathIndex];
+        category = "%s/%s".formatted(category, identifierPathBuilder.toString());
+
+        File categoryDir = new File(rootDir, "%s/".formatted(category));
+        File file = new File(categoryDir, identifier);
+        try {
+            String canonicalPath = file.getCanonicalPath();
+            if (!canonicalPath.startsWith(categoryDir.getAbsolutePath())){
+                logger.warn("File was not supplied because a path traversal attempt was detected, " +
+                        "innerScopeCategory={}, innerScopeId={}, pathTraversedTo={}", category, identifier,canonicalPath);
+                throw new IllegalArgumentException("Invalid file identifier. Please try again later.");
+            }
+        } catch (IOException e) {
+            logger.warn("Something went wrong while doing path traversal validations, " +
+                    "category={}, id={}", category, identifier);
+            throw new RuntimeException(e);
+        }
+
+        return file;
+    }
+
+}
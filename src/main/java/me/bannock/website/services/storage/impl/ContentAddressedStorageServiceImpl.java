@@ -0,0 +1,344 @@
+package me.bannock.website.services.storage.impl;
+
+import me.bannock.website.services.storage.StagedFile;
+import me.bannock.website.services.storage.StoredFile;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Stores every distinct piece of data once, named by its SHA-256 hash. Each category keeps an index
+ * that maps identifiers to hashes, so saving the same data under many identifiers only takes up space once.
+ * <br/><br/>
+ * Reference counts are kept in memory and rebuilt from the index on startup, which also deletes any data
+ * that's no longer referenced. Startup takes longer the more identifiers are stored, and fails if the index
+ * can't be read, since deleting data without a full count could lose data that's still referenced
+ */
+@Service
+@ConditionalOnProperty(name = "bannock.storage.backend", havingValue = "contentAddressed")
+public class ContentAddressedStorageServiceImpl extends AbstractFileStorageService {
+
+    public ContentAddressedStorageServiceImpl(){
+        rebuildReferenceCounts();
+    }
+
+    /**
+     * @param applicationDir The directory to keep all data in
+     */
+    ContentAddressedStorageServiceImpl(File applicationDir){
+        super(applicationDir);
+        rebuildReferenceCounts();
+    }
+
+    private final Logger logger = LogManager.getLogger();
+
+    private final File contentDir = new File(applicationDir, "cas");
+
+    /**
+     * Holds the data, named by hash
+     */
+    private final File blobsDir = new File(contentDir, "blobs");
+
+    /**
+     * Holds a small file for each stored identifier that contains the hash of its data
+     */
+    private final File indexDir = new File(contentDir, "index");
+
+    private static final Pattern SHA256_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    /**
+     * The amount of identifiers that reference each hash. Only changed while holding the hash's blob lock
+     */
+    private final Map<String, Integer> referenceCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Index locks are always taken before blob locks, so they're kept apart to prevent deadlocks.
+     * Files are read and written while holding them, so they're locks rather than monitors, which
+     * would pin virtual threads to their carriers for the whole operation
+     */
+    private final ReentrantLock[] indexLocks = newLocks(64);
+    private final ReentrantLock[] blobLocks = newLocks(64);
+
+    @Override
+    public void save(InputStream dataStream, String category, String identifier) throws IOException {
+        // Validates the identifier before anything is written
+        toIndexFile(category, identifier);
+
+        long writeStartMillis = System.currentTimeMillis();
+        StagedFile stagedFile = stage(dataStream, -1);
+        try {
+            publish(stagedFile, category, identifier);
+        } catch (IOException e) {
+            discard(stagedFile);
+            throw e;
+        }
+        logger.info("Wrote \"{}\"/\"{}\" in {}ms, size={}, sha256={}", category, identifier,
+                System.currentTimeMillis() - writeStartMillis, stagedFile.size(), stagedFile.sha256());
+    }
+
+    @Override
+    public void publish(StagedFile stagedFile, String category, String identifier) throws IOException {
+        Objects.requireNonNull(stagedFile);
+        File indexFile = toIndexFile(category, identifier);
+        String sha256 = stagedFile.sha256();
+        ReentrantLock indexLock = getLock(indexLocks, indexFile.getPath());
+        indexLock.lock();
+        try {
+            String oldSha256 = readIndexFile(indexFile.toPath());
+            addReference(stagedFile);
+            try {
+                writeIndexFile(indexFile.toPath(), sha256);
+            } catch (IOException e) {
+                logger.warn("Failed to publish staged file, category=\"{}\", id=\"{}\", sha256={}",
+                        category, identifier, sha256, e);
+                removeReference(sha256);
+                throw e;
+            }
+            if (oldSha256 != null)
+                removeReference(oldSha256);
+        } finally {
+            indexLock.unlock();
+        }
+        logger.info("Published \"{}\"/\"{}\", size={}, sha256={}", category, identifier, stagedFile.size(), sha256);
+    }
+
+    @Override
+    public boolean delete(String category, String identifier) throws IOException {
+        File indexFile = toIndexFile(category, identifier);
+        ReentrantLock indexLock = getLock(indexLocks, indexFile.getPath());
+        indexLock.lock();
+        try {
+            String sha256 = readIndexFile(indexFile.toPath());
+            if (!Files.deleteIfExists(indexFile.toPath()))
+                return false;
+            if (sha256 != null)
+                removeReference(sha256);
+        } finally {
+            indexLock.unlock();
+        }
+        logger.info("Deleted \"{}\"/\"{}\"", category, identifier);
+        return true;
+    }
+
+    @Override
+    public InputStream load(String category, String identifier) throws IOException {
+        String sha256 = readIndexFile(toIndexFile(category, identifier).toPath());
+        if (sha256 == null){
+            logger.warn("Could not find file to load data from, category={}, identifier={}", category, identifier);
+            throw new FileNotFoundException("File does not exist");
+        }
+        File blob = toBlobFile(sha256);
+        try{
+            return new FileInputStream(blob);
+        }catch(FileNotFoundException e){
+            logger.warn("Could not find data for stored file, category={}, identifier={}, sha256={}",
+                    category, identifier, sha256);
+            throw e;
+        }
+    }
+
+    @Override
+    public Optional<StoredFile> findFile(String category, String identifier) throws IOException {
+        String sha256 = readIndexFile(toIndexFile(category, identifier).toPath());
+        if (sha256 == null)
+            return Optional.empty();
+        Path blob = toBlobFile(sha256).toPath();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(blob, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+        if (!attributes.isRegularFile())
+            return Optional.empty();
+        return Optional.of(new StoredFile(blob, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                () -> sha256));
+    }
+
+    /**
+     * Stores staged data if it isn't already stored and counts a new reference to it
+     * @param stagedFile The staged data. Used up either way
+     * @throws IOException If something goes wrong while storing the data
+     */
+    private void addReference(StagedFile stagedFile) throws IOException {
+        String sha256 = stagedFile.sha256();
+        ReentrantLock blobLock = getLock(blobLocks, sha256);
+        blobLock.lock();
+        try {
+            File blob = toBlobFile(sha256);
+            if (blob.isFile()){
+                discard(stagedFile);
+                logger.debug("Data is already stored, so the staged copy was discarded, sha256={}", sha256);
+            }else{
+                moveIntoPlace(stagedFile.path(), blob.toPath());
+            }
+            referenceCounts.merge(sha256, 1, Integer::sum);
+        } finally {
+            blobLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a reference to some data, deleting the data if that was its last reference
+     * @param sha256 The hash of the data
+     */
+    private void removeReference(String sha256){
+        ReentrantLock blobLock = getLock(blobLocks, sha256);
+        blobLock.lock();
+        try {
+            Integer references = referenceCounts.get(sha256);
+            if (references == null){
+                // Something else may still reference it, so it's left for the next startup to delete if not
+                logger.warn("Tried to remove a reference to data that wasn't counted, sha256={}", sha256);
+                return;
+            }
+            if (references > 1){
+                referenceCounts.put(sha256, references - 1);
+                return;
+            }
+            referenceCounts.remove(sha256);
+            try {
+                Files.deleteIfExists(toBlobFile(sha256).toPath());
+                logger.debug("Deleted data that is no longer referenced, sha256={}", sha256);
+            } catch (IOException e) {
+                // It will be deleted on the next startup instead
+                logger.warn("Failed to delete data that is no longer referenced, sha256={}", sha256, e);
+            }
+        } finally {
+            blobLock.unlock();
+        }
+    }
+
+    /**
+     * @param indexFile The index file for an identifier
+     * @return The hash the identifier points to, or null if the identifier isn't stored
+     * @throws IOException If something goes wrong while reading the index file
+     */
+    private String readIndexFile(Path indexFile) throws IOException {
+        if (!Files.isRegularFile(indexFile))
+            return null;
+        String sha256 = Files.readString(indexFile, StandardCharsets.US_ASCII).trim();
+        if (!SHA256_PATTERN.matcher(sha256).matches()){
+            logger.warn("Ignoring index file with invalid contents, path={}", indexFile);
+            return null;
+        }
+        return sha256;
+    }
+
+    /**
+     * Points an identifier at a hash. The index file is staged and moved into place, so readers
+     * see either the old hash or the new one
+     * @param indexFile The index file for the identifier
+     * @param sha256 The hash to point it at
+     * @throws IOException If something goes wrong while writing the index file
+     */
+    private void writeIndexFile(Path indexFile, String sha256) throws IOException {
+        StagedFile stagedIndexFile = stage(new ByteArrayInputStream(sha256.getBytes(StandardCharsets.US_ASCII)), -1);
+        try {
+            moveIntoPlace(stagedIndexFile.path(), indexFile);
+        } catch (IOException e) {
+            discard(stagedIndexFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Counts the references to each hash in the index and deletes data that isn't referenced, such as
+     * data whose identifiers were replaced or deleted while the server was shutting down
+     * @throws IllegalStateException If the index can't be read, since the counts would be incomplete
+     */
+    private void rebuildReferenceCounts(){
+        long rebuildStartMillis = System.currentTimeMillis();
+        if (indexDir.isDirectory()){
+            try(Stream<Path> indexFiles = Files.walk(indexDir.toPath())){
+                for (Path indexFile : (Iterable<Path>)indexFiles.filter(Files::isRegularFile)::iterator){
+                    String sha256 = readIndexFile(indexFile);
+                    if (sha256 != null)
+                        referenceCounts.merge(sha256, 1, Integer::sum);
+                }
+            } catch (IOException e) {
+                // Deleting data with a partial count, now or when references are removed later, would lose
+                // data that's still referenced
+                logger.error("Failed to read storage index, path={}", indexDir, e);
+                throw new IllegalStateException("Failed to read storage index", e);
+            }
+        }
+
+        int deletedBlobs = 0;
+        if (blobsDir.isDirectory()){
+            try(Stream<Path> blobs = Files.walk(blobsDir.toPath())){
+                for (Path blob : (Iterable<Path>)blobs.filter(Files::isRegularFile)::iterator){
+                    if (referenceCounts.containsKey(blob.getFileName().toString()))
+                        continue;
+                    Files.deleteIfExists(blob);
+                    deletedBlobs++;
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to delete unreferenced data, path={}", blobsDir, e);
+            }
+        }
+        logger.info("Rebuilt storage reference counts in {}ms, storedBlobs={}, references={}, deletedBlobs={}",
+                System.currentTimeMillis() - rebuildStartMillis, referenceCounts.size(),
+                referenceCounts.values().stream().mapToLong(Integer::longValue).sum(), deletedBlobs);
+    }
+
+    /**
+     * @param category The category for the file we're getting. Do not pass in user supplied  values
+     * @param identifier The identifier for the file we're mapping. Could be a user supplied value
+     * @return The index file for the identifier
+     * @throws IllegalArgumentException if the identifier does not pass validations
+     */
+    private File toIndexFile(String category, String identifier){
+        return toFile(indexDir, category, identifier);
+    }
+
+    /**
+     * @param sha256 The hash of the data
+     * @return The file the data is stored in. Spread over directories named after the start of
+     * the hash so no single directory gets too large
+     */
+    private File toBlobFile(String sha256){
+        return new File(new File(blobsDir, sha256.substring(0, 2)), sha256);
+    }
+
+    /**
+     * @param locks The locks to choose from
+     * @param key The key to get the lock for
+     * @return The lock for the key
+     */
+    private ReentrantLock getLock(ReentrantLock[] locks, String key){
+        return locks[Math.floorMod(key.hashCode(), locks.length)];
+    }
+
+    /**
+     * @param count The amount of locks
+     * @return New locks
+     */
+    private static ReentrantLock[] newLocks(int count){
+        ReentrantLock[] locks = new ReentrantLock[count];
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new ReentrantLock();
+        return locks;
+    }
+
+}
@@ -2,11 +2,17 @@ package me.bannock.website.services.user;
 
 import org.springframework.lang.Nullable;
 
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
-public class User {
+/**
+ * Kept in the session of logged in users, so it must stay serializable
+ */
+public class User implements Serializable {
+
+    private static final long serialVersionUID = 3621L;
 
     /**
      * @param id The id of the user
@@ -41,9 +47,10 @@ public class User {
     private final long id;
     private final String name, email, lastIp;
     /**
-     * Unclaimed users have no password
+     * Unclaimed users have no password. Not serialized, so the hash isn't written out with sessions;
+     * users read back from a session have no password until they're refreshed
      */
-    private final @Nullable String password;
+    private final transient @Nullable String password;
     private final List<String> roles;
     private final boolean emailVerified, accountDisabled, shadowBanned, unclaimedAccount;
 
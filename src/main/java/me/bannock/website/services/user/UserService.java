@@ -1,7 +1,9 @@
 package me.bannock.website.services.user;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public interface UserService {
 
@@ -30,6 +32,21 @@ public interface UserService {
      */
     List<User> getManyUsersWithIds(List<Long> ids);
 
+    /**
+     * Bulk method to get many users using their IDs, keyed by their IDs.
+     * Not all the ids provided are guaranteed to be in the returned map
+     * @param ids The ids to get the users for. Duplicates are allowed
+     * @return A map of user ids to the users that matched the provided IDs
+     */
+    default Map<Long, User> getManyUsersMappedByIds(List<Long> ids){
+        Map<Long, User> uidToUserMappings = new HashMap<>();
+        if (ids.isEmpty())
+            return uidToUserMappings;
+        getManyUsersWithIds(ids.stream().distinct().toList())
+                .forEach(user -> uidToUserMappings.put(user.getId(), user));
+        return uidToUserMappings;
+    }
+
     /**
      * Gets a user using their username and password
      * @param name The user's username
@@ -0,0 +1,67 @@
+package me.bannock.website.services.user.cache;
+
+import me.bannock.website.services.user.User;
+import me.bannock.website.services.user.UserService;
+import me.bannock.website.services.user.UserServiceException;
+import me.bannock.website.services.user.impl.hibernate.HibernateUserServiceImpl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Serves user lookups from the {@link UserCache}, falling back to the database backed user service.
+ * Password checks and registrations always go straight through
+ */
+@Service
+@Primary
+public class CachingUserServiceImpl implements UserService {
+
+    @Autowired
+    public CachingUserServiceImpl(HibernateUserServiceImpl userService, UserCache userCache){
+        this.userService = userService;
+        this.userCache = userCache;
+    }
+
+    private final UserService userService;
+    private final UserCache userCache;
+
+    @Override
+    public User getUserWithId(long id) throws UserServiceException {
+        return userCache.getWithId(id, userService::getUserWithId);
+    }
+
+    @Override
+    public List<User> getManyUsersWithIds(List<Long> ids) {
+        if (ids.isEmpty())
+            return List.of();
+        return userCache.getAll(ids, userService::getManyUsersWithIds);
+    }
+
+    @Override
+    public User getUserWithNameAndPassword(String name, String password) throws UserServiceException {
+        return userService.getUserWithNameAndPassword(name, password);
+    }
+
+    @Override
+    public User getUserWithEmail(String email) throws UserServiceException {
+        return userCache.getWithEmail(email, userService::getUserWithEmail);
+    }
+
+    @Override
+    public User getUserWithName(String name) throws UserServiceException {
+        return userCache.getWithName(name, userService::getUserWithName);
+    }
+
+    @Override
+    public User registerDummyUser(String name, String email, String ip) throws UserServiceException {
+        return userService.registerDummyUser(name, email, ip);
+    }
+
+    @Override
+    public User registerUser(User user) throws UserServiceException {
+        return userService.registerUser(user);
+    }
+
+}
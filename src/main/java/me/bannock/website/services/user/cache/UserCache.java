@@ -0,0 +1,280 @@
+package me.bannock.website.services.user.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import me.bannock.website.services.user.User;
+import me.bannock.website.services.user.UserServiceException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds recently used users so the same authors and commenters don't need to be loaded on every request.
+ * Users are stored once by their id; names and emails are indexes that point at the id. Names and emails
+ * are compared case-insensitively, the same as the database does. Anything that changes a user must
+ * invalidate them here
+ */
+@Component
+public class UserCache {
+
+    @Autowired
+    public UserCache(MeterRegistry meterRegistry,
+                     @Value("${bannock.userCache.maxSize}") long maxSize,
+                     @Value("${bannock.userCache.expireAfterWriteMillis}") long expireAfterWriteMillis){
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMillis(expireAfterWriteMillis))
+                .evictionListener((Long id, User user, RemovalCause cause) -> {
+                    if (id != null && user != null)
+                        removeIndexes(id, user);
+                })
+                .recordStats(() -> statsCounter)
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "users");
+    }
+
+    private final Logger logger = LogManager.getLogger();
+    /**
+     * Loads happen outside of Caffeine, so they're recorded here to keep the exported load statistics complete
+     */
+    private final ConcurrentStatsCounter statsCounter = new ConcurrentStatsCounter();
+    private final Cache<Long, User> cache;
+    private final Map<String, Long> nameIndex = new ConcurrentHashMap<>();
+    private final Map<String, Long> emailIndex = new ConcurrentHashMap<>();
+
+    /**
+     * Counts every invalidation, so a load that was running while a user was invalidated knows its copy
+     * may be stale and doesn't keep it. Shared by all users since loads by name or email don't know whose
+     * id they're loading until they finish, and invalidations are rare
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param id The user's id
+     * @param loader Loads the user if they are not cached
+     * @return The user
+     * @throws UserServiceException If the user is not cached and the loader fails
+     */
+    public User getWithId(long id, UserLoader<Long> loader) throws UserServiceException {
+        User user = cache.getIfPresent(id);
+        if (user != null)
+            return user;
+        return load(id, loader);
+    }
+
+    /**
+     * @param name The user's name
+     * @param loader Loads the user if they are not cached
+     * @return The user
+     * @throws UserServiceException If the user is not cached and the loader fails
+     */
+    public User getWithName(String name, UserLoader<String> loader) throws UserServiceException {
+        return getWithIndex(nameIndex, name, loader);
+    }
+
+    /**
+     * @param email The user's email
+     * @param loader Loads the user if they are not cached
+     * @return The user
+     * @throws UserServiceException If the user is not cached and the loader fails
+     */
+    public User getWithEmail(String email, UserLoader<String> loader) throws UserServiceException {
+        return getWithIndex(emailIndex, email, loader);
+    }
+
+    /**
+     * @param ids The ids of the users to get
+     * @return The users that are cached, keyed by their ids
+     */
+    public Map<Long, User> getAllPresent(Collection<Long> ids){
+        return cache.getAllPresent(ids);
+    }
+
+    /**
+     * @param ids The ids of the users to get
+     * @param loader Loads the users that are not cached. Users that don't exist may be left out
+     * @return The users that are cached or could be loaded
+     */
+    public List<User> getAll(Collection<Long> ids, BulkUserLoader loader){
+        Map<Long, User> cachedUsers = cache.getAllPresent(ids);
+        List<User> users = new ArrayList<>(cachedUsers.values());
+        List<Long> missingIds = ids.stream().distinct().filter(id -> !cachedUsers.containsKey(id)).toList();
+        if (missingIds.isEmpty())
+            return users;
+
+        long invalidationsBeforeLoad = invalidations.get();
+        long loadStartNanos = System.nanoTime();
+        List<User> loadedUsers = loader.load(missingIds);
+        statsCounter.recordLoadSuccess(System.nanoTime() - loadStartNanos);
+        for (User user : loadedUsers){
+            putLoaded(user, invalidationsBeforeLoad);
+            users.add(user);
+        }
+        return users;
+    }
+
+    /**
+     * Caches a freshly loaded user, replacing any previously cached copy
+     * @param user The user to cache
+     */
+    public void put(User user){
+        User previous = cache.asMap().put(user.getId(), user);
+        if (previous != null)
+            removeIndexes(previous.getId(), previous);
+        addIndexes(user);
+    }
+
+    /**
+     * Removes a user from the cache. If called within a transaction, the user is removed again once it
+     * commits so that a copy loaded before the change was committed doesn't stick around
+     * @param id The id of the user to remove
+     */
+    public void invalidate(long id){
+        invalidateNow(id);
+        if (TransactionSynchronizationManager.isSynchronizationActive()){
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidateNow(id);
+                }
+            });
+        }
+    }
+
+    /**
+     * @param id The id of the user to remove
+     */
+    private void invalidateNow(long id){
+        invalidations.incrementAndGet();
+        User removed = cache.asMap().remove(id);
+        if (removed != null)
+            removeIndexes(id, removed);
+        logger.debug("Invalidated cached user, userId={}", id);
+    }
+
+    /**
+     * Looks up a user using one of the indexes, loading them if they are not cached
+     * @param index The index to use
+     * @param key The user's name or email
+     * @param loader Loads the user if they are not cached
+     * @return The user
+     * @throws UserServiceException If the user is not cached and the loader fails
+     */
+    private User getWithIndex(Map<String, Long> index, String key, UserLoader<String> loader) throws UserServiceException {
+        Long id = index.get(normalize(key));
+        if (id != null){
+            User user = cache.getIfPresent(id);
+            if (user != null)
+                return user;
+        }else{
+            statsCounter.recordMisses(1);
+        }
+        return load(key, loader);
+    }
+
+    /**
+     * Loads a user and caches them. Loads are deliberately not done through Caffeine's compute methods,
+     * as those hold a lock while loading; database waits there would pin virtual threads to their carriers.
+     * Instead, a loaded user isn't kept if anything was invalidated while they were being loaded
+     * @param key The key to load the user with
+     * @param loader Loads the user
+     * @return The loaded user
+     * @param <K> The type of key the user is loaded with
+     * @throws UserServiceException If the loader fails
+     */
+    private <K> User load(K key, UserLoader<K> loader) throws UserServiceException {
+        long invalidationsBeforeLoad = invalidations.get();
+        long loadStartNanos = System.nanoTime();
+        User user;
+        try{
+            user = loader.load(key);
+        }catch (UserServiceException e){
+            statsCounter.recordLoadFailure(System.nanoTime() - loadStartNanos);
+            throw e;
+        }
+        statsCounter.recordLoadSuccess(System.nanoTime() - loadStartNanos);
+        putLoaded(user, invalidationsBeforeLoad);
+        return user;
+    }
+
+    /**
+     * Caches a loaded user, unless something was invalidated since the load started. The user is put before
+     * checking so an invalidation can't slip in between the check and the put; an invalidation that comes
+     * after the check removes the user itself
+     * @param user The loaded user
+     * @param invalidationsBeforeLoad The invalidation count from before the user was loaded
+     */
+    private void putLoaded(User user, long invalidationsBeforeLoad){
+        put(user);
+        if (invalidations.get() == invalidationsBeforeLoad)
+            return;
+        if (cache.asMap().remove(user.getId(), user))
+            removeIndexes(user.getId(), user);
+        logger.debug("Did not cache user because they may have changed while loading, userId={}", user.getId());
+    }
+
+    /**
+     * @param user The user to add to the indexes
+     */
+    private void addIndexes(User user){
+        if (user.getName() != null)
+            nameIndex.put(normalize(user.getName()), user.getId());
+        if (user.getEmail() != null)
+            emailIndex.put(normalize(user.getEmail()), user.getId());
+    }
+
+    /**
+     * Removes a user's index entries, unless they have since been taken by another user
+     * @param id The user's id
+     * @param user The user to remove from the indexes
+     */
+    private void removeIndexes(long id, User user){
+        if (user.getName() != null)
+            nameIndex.remove(normalize(user.getName()), id);
+        if (user.getEmail() != null)
+            emailIndex.remove(normalize(user.getEmail()), id);
+    }
+
+    /**
+     * @param key A user's name or email
+     * @return The key used to index the user
+     */
+    private String normalize(String key){
+        return key.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Loads a user that was not cached
+     * @param <K> The type of key the user is loaded with
+     */
+    @FunctionalInterface
+    public interface UserLoader<K> {
+        User load(K key) throws UserServiceException;
+    }
+
+    /**
+     * Loads many users that were not cached
+     */
+    @FunctionalInterface
+    public interface BulkUserLoader {
+        List<User> load(List<Long> ids);
+    }
+
+}
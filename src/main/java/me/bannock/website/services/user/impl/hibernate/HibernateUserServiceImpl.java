@@ -4,6 +4,7 @@ import me.bannock.website.security.Roles;
 import me.bannock.website.services.user.User;
 import me.bannock.website.services.user.UserService;
 import me.bannock.website.services.user.UserServiceException;
+import me.bannock.website.services.user.cache.UserCache;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,19 +17,23 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 
 @Service
 public class HibernateUserServiceImpl implements UserService {
 
     @Autowired
-    public HibernateUserServiceImpl(PasswordEncoder passwordEncoder, UserRepository userRepository){
+    public HibernateUserServiceImpl(PasswordEncoder passwordEncoder, UserRepository userRepository,
+                                    UserCache userCache){
         this.passwordEncoder = passwordEncoder;
         this.userRepository = userRepository;
+        this.userCache = userCache;
     }
 
     private final Logger logger = LogManager.getLogger();
     private final PasswordEncoder passwordEncoder;
     private final UserRepository userRepository;
+    private final UserCache userCache;
 
     @Value("${bannock.hibernateUsers.registrationsEnabled}")
     private boolean registrationsEnabled;
@@ -36,6 +41,7 @@ public class HibernateUserServiceImpl implements UserService {
     private boolean dummyRegistrationsEnabled;
 
     @Override
+    @Transactional(readOnly = true)
     public User getUserWithId(long id) throws UserServiceException {
         Optional<UserEntity> userEntity = userRepository.findById(id);
 
@@ -45,14 +51,16 @@ public class HibernateUserServiceImpl implements UserService {
                     "Id \"%s\" does not exist".formatted(id));
         }
 
-        logger.info("Successfully got user using their id, userEntity={}", userEntity.get());
+        logger.debug("Successfully got user using their id, userEntity={}", userEntity.get());
         return toDto(userEntity.get());
     }
 
     @Override
     @Transactional(readOnly = true)
     public List<User> getManyUsersWithIds(List<Long> ids) {
-        List<UserEntity> userEntity = userRepository.findByIdIsIn(ids);
+        if (ids.isEmpty())
+            return List.of();
+        List<UserEntity> userEntity = userRepository.findWithRolesByIdIn(ids);
         return userEntity.stream().map(this::toDto).toList();
     }
 
@@ -77,7 +85,15 @@ public class HibernateUserServiceImpl implements UserService {
             throw new UserServiceException("Your password has not been set up yet. Please reset your password.",
                     "User's password is not set");
         }
-        else if (!passwordEncoder.matches(password, userEntity.get().getPassword().get())){
+        boolean passwordMatches;
+        try{
+            passwordMatches = passwordEncoder.matches(password, userEntity.get().getPassword().get());
+        }catch (RejectedExecutionException e){
+            logger.warn("Unable to check user's password because the server is too busy, username={}", name, e);
+            throw new UserServiceException("The server is busy. Please try again shortly.",
+                    "Password check was rejected");
+        }
+        if (!passwordMatches){
             logger.info("Attempted to get user but password does not match, userEntity={}", userEntity.get());
             throw new UserServiceException("Incorrect password.", "Incorrect password");
         }
@@ -95,7 +111,7 @@ public class HibernateUserServiceImpl implements UserService {
             throw new UserServiceException("No account exists with the given email.",
                     "Email \"%s\" does not exist".formatted(email));
         }
-        logger.info("Successfully got user using their email, userEntity={}", userEntity.get());
+        logger.debug("Successfully got user using their email, userEntity={}", userEntity.get());
         return toDto(userEntity.get());
     }
 
@@ -110,7 +126,7 @@ public class HibernateUserServiceImpl implements UserService {
                     "Username \"%s\" does not exist".formatted(name));
         }
 
-        logger.info("Successfully got user using their name, userEntity={}", userEntity.get());
+        logger.debug("Successfully got user using their name, userEntity={}", userEntity.get());
         return toDto(userEntity.get());
     }
 
@@ -138,6 +154,7 @@ public class HibernateUserServiceImpl implements UserService {
         UserEntity userEntity = new UserEntity(name, email, ip);
         userEntity.getRoles().addAll(List.of(Roles.DEFAULT_USER_ROLES));
         userRepository.save(userEntity);
+        userCache.invalidate(userEntity.getId());
         logger.info("Created new dummy user, user={}", userEntity);
         return toDto(userEntity);
     }
@@ -153,6 +170,7 @@ public class HibernateUserServiceImpl implements UserService {
         roles.addAll(List.of(Roles.DEFAULT_USER_ROLES));
         userEntity.setRoles(roles);
         userRepository.save(userEntity);
+        userCache.invalidate(userEntity.getId());
         return toDto(userEntity);
     }
 
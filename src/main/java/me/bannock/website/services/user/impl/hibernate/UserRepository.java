@@ -1,8 +1,11 @@
 package me.bannock.website.services.user.impl.hibernate;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -15,4 +18,12 @@ public interface UserRepository extends JpaRepository<UserEntity, Long> {
 
     List<UserEntity> findByIdIsIn(List<Long> ids);
 
+    /**
+     * Loads many users with their roles initialized in a single query
+     * @param ids The ids of the users to load
+     * @return The users that matched the provided ids, in no particular order
+     */
+    @Query("select distinct u from UserEntity u left join fetch u.roles where u.id in :ids")
+    List<UserEntity> findWithRolesByIdIn(@Param("ids") Collection<Long> ids);
+
 }
@@ -0,0 +1,46 @@
+package me.bannock.website;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.resource.PathResourceResolver;
+import org.springframework.web.servlet.resource.ResourceHttpRequestHandler;
+import org.springframework.web.servlet.resource.ResourceUrlProvider;
+import org.springframework.web.servlet.resource.VersionResourceResolver;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaticResourceConfigurationTest {
+
+    private ResourceUrlProvider resourceUrlProvider;
+    private StaticResourceConfiguration configuration;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ResourceHttpRequestHandler handler = new ResourceHttpRequestHandler();
+        handler.setLocations(List.of(new ClassPathResource("static/resources/")));
+        handler.setResourceResolvers(List.of(new VersionResourceResolver().addContentVersionStrategy("/**"),
+                new PathResourceResolver()));
+        handler.afterPropertiesSet();
+        resourceUrlProvider = new ResourceUrlProvider();
+        resourceUrlProvider.setHandlerMap(Map.of("/resources/**", handler));
+        configuration = new StaticResourceConfiguration(resourceUrlProvider);
+    }
+
+    @Test
+    void onlyCurrentHashesAreVersioned(){
+        String hashedPath = resourceUrlProvider.getForLookupPath("/resources/core/css/main.css");
+        assertNotNull(hashedPath);
+        assertNotEquals("/resources/core/css/main.css", hashedPath);
+
+        assertTrue(configuration.isCurrentVersion(new MockHttpServletRequest("GET", hashedPath)));
+        assertFalse(configuration.isCurrentVersion(new MockHttpServletRequest("GET", "/resources/core/css/main.css")));
+        assertFalse(configuration.isCurrentVersion(new MockHttpServletRequest("GET",
+                "/resources/core/css/main-0123456789abcdef0123456789abcdef.css")));
+    }
+
+}
@@ -0,0 +1,130 @@
+package me.bannock.website;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.catalina.connector.Connector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.condition.JRE;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares how many slow clients Tomcat can serve at once using its fixed pool of platform threads against
+ * using virtual threads. Every client reads its response slowly, holding on to the thread writing it.
+ * Run with -Dbannock.loadTests=true on Java 21 or newer
+ */
+@EnabledForJreRange(min = JRE.JAVA_21)
+@EnabledIfSystemProperty(named = "bannock.loadTests", matches = "true")
+class VirtualThreadsLoadTest {
+
+    private static final int CLIENT_COUNT = 200;
+    private static final int PLATFORM_THREAD_COUNT = 20;
+    private static final int RESPONSE_BYTES = 128 * 1024;
+    private static final int CLIENT_READ_BYTES = 4096;
+    private static final long CLIENT_READ_DELAY_MILLIS = 5;
+
+    private final Logger logger = LogManager.getLogger();
+
+    @Test
+    public void virtualThreadsServeSlowClientsFaster() throws Exception {
+        long platformMillis = timeSlowClients(connector -> connector.setProperty("maxThreads",
+                String.valueOf(PLATFORM_THREAD_COUNT)));
+        long virtualMillis = timeSlowClients(connector -> connector.getProtocolHandler()
+                .setExecutor(new VirtualThreadExecutor("virtual-http-")));
+        logger.info("Served slow clients, clientCount={}, platformThreads={}, platformMillis={}, " +
+                        "platformRequestsPerSecond={}, virtualMillis={}, virtualRequestsPerSecond={}",
+                CLIENT_COUNT, PLATFORM_THREAD_COUNT, platformMillis, CLIENT_COUNT * 1000L / platformMillis,
+                virtualMillis, CLIENT_COUNT * 1000L / virtualMillis);
+        assertTrue(virtualMillis < platformMillis);
+    }
+
+    /**
+     * Starts a server, then times how long it takes for every client to be served
+     * @param connectorCustomizer Sets up how the server's connector runs requests
+     * @return The time it took for every client to be served in milliseconds
+     */
+    private long timeSlowClients(Consumer<Connector> connectorCustomizer) throws Exception {
+        TomcatServletWebServerFactory factory = new TomcatServletWebServerFactory(0);
+        factory.addConnectorCustomizers(connector -> {
+            // Keeps the kernel from buffering whole responses so slow clients hold on to server threads
+            connector.setProperty("socket.txBufSize", "8192");
+            connectorCustomizer.accept(connector);
+        });
+        WebServer server = factory.getWebServer(servletContext -> servletContext
+                .addServlet("slow", new LargeResponseServlet()).addMapping("/"));
+        server.start();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENT_COUNT);
+        try {
+            long startNanos = System.nanoTime();
+            List<Future<Integer>> readByteCounts = new ArrayList<>();
+            for (int i = 0; i < CLIENT_COUNT; i++)
+                readByteCounts.add(clients.submit(() -> readSlowly(server.getPort())));
+            for (Future<Integer> readByteCount : readByteCounts)
+                assertTrue(readByteCount.get() > RESPONSE_BYTES);
+            return (System.nanoTime() - startNanos) / 1_000_000;
+        } finally {
+            clients.shutdownNow();
+            server.stop();
+        }
+    }
+
+    /**
+     * Requests the large response, reading it a little at a time
+     * @param port The port the server is on
+     * @return The amount of bytes read
+     */
+    private int readSlowly(int port) throws IOException, InterruptedException {
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(CLIENT_READ_BYTES);
+            socket.connect(new InetSocketAddress("127.0.0.1", port));
+            OutputStream out = socket.getOutputStream();
+            out.write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[CLIENT_READ_BYTES];
+            int totalRead = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1){
+                totalRead += read;
+                Thread.sleep(CLIENT_READ_DELAY_MILLIS);
+            }
+            return totalRead;
+        }
+    }
+
+    private static class LargeResponseServlet extends HttpServlet {
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            resp.setContentType("application/octet-stream");
+            resp.setContentLength(RESPONSE_BYTES);
+            byte[] chunk = new byte[8192];
+            OutputStream out = resp.getOutputStream();
+            for (int written = 0; written < RESPONSE_BYTES; written += chunk.length)
+                out.write(chunk, 0, Math.min(chunk.length, RESPONSE_BYTES - written));
+        }
+
+    }
+
+}
@@ -0,0 +1,186 @@
+package me.bannock.website.controllers;
+
+import me.bannock.website.services.storage.StoredFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileTransferUtilsTest {
+
+    private static final String CONTENT_TYPE = "text/plain";
+    private static final String CACHE_CONTROL = "public, max-age=60";
+
+    @TempDir
+    private Path tempDir;
+    private byte[] fileBytes;
+    private StoredFile storedFile;
+
+    @BeforeEach
+    void createFile() throws IOException {
+        fileBytes = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.US_ASCII);
+        Path path = tempDir.resolve("file.txt");
+        Files.write(path, fileBytes);
+        storedFile = new StoredFile(path, fileBytes.length, Files.getLastModifiedTime(path).toMillis());
+    }
+
+    private MockHttpServletResponse serve(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        FileTransferUtils.serveFile(storedFile, CONTENT_TYPE, CACHE_CONTROL, request, response);
+        return response;
+    }
+
+    @Test
+    void servesEntireFileWithValidators() throws IOException {
+        MockHttpServletResponse response = serve(new MockHttpServletRequest("GET", "/"));
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(fileBytes, response.getContentAsByteArray());
+        assertEquals(fileBytes.length, response.getContentLengthLong());
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertEquals(CACHE_CONTROL, response.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertNotNull(response.getHeader(HttpHeaders.ETAG));
+        assertNotNull(response.getHeader(HttpHeaders.LAST_MODIFIED));
+    }
+
+    @Test
+    void respondsNotModifiedForMatchingETag() throws IOException {
+        String eTag = serve(new MockHttpServletRequest("GET", "/")).getHeader(HttpHeaders.ETAG);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, eTag);
+        MockHttpServletResponse response = serve(request);
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void respondsNotModifiedForIfModifiedSince() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, storedFile.lastModifiedMillis() + 1000);
+        assertEquals(304, serve(request).getStatus());
+    }
+
+    @Test
+    void servesSingleRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.RANGE, "bytes=10-15");
+        MockHttpServletResponse response = serve(request);
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-15/%d".formatted(fileBytes.length), response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(Arrays.copyOfRange(fileBytes, 10, 16), response.getContentAsByteArray());
+        assertEquals(6, response.getContentLengthLong());
+    }
+
+    @Test
+    void servesSuffixRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.RANGE, "bytes=-4");
+        MockHttpServletResponse response = serve(request);
+        assertEquals(206, response.getStatus());
+        assertArrayEquals(Arrays.copyOfRange(fileBytes, fileBytes.length - 4, fileBytes.length),
+                response.getContentAsByteArray());
+    }
+
+    @Test
+    void servesMultipleRanges() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1,30-");
+        MockHttpServletResponse response = serve(request);
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        String boundary = response.getContentType().substring(response.getContentType().indexOf('=') + 1);
+        String body = response.getContentAsString(StandardCharsets.US_ASCII);
+        assertEquals(body.length(), response.getContentLengthLong());
+        assertEquals(("\r\n--%1$s\r\nContent-Type: %2$s\r\nContent-Range: bytes 0-1/36\r\n\r\n01" +
+                "\r\n--%1$s\r\nContent-Type: %2$s\r\nContent-Range: bytes 30-35/36\r\n\r\nuvwxyz" +
+                "\r\n--%1$s--\r\n").formatted(boundary, CONTENT_TYPE), body);
+    }
+
+    @Test
+    void coalescesOverlappingRanges() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.RANGE, "bytes=12-15,10-12,16-17");
+        MockHttpServletResponse response = serve(request);
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-17/%d".formatted(fileBytes.length), response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(Arrays.copyOfRange(fileBytes, 10, 18), response.getContentAsByteArray());
+    }
+
+    @Test
+    void servesWholeFileOnceForRangesLargerThanIt() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.RANGE, "bytes=" + String.join(",", Collections.nCopies(50, "0-")));
+        MockHttpServletResponse response = serve(request);
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(fileBytes, response.getContentAsByteArray());
+    }
+
+    @Test
+    void servesRangesFromMemory() throws IOException {
+        // The file on disk is emptied so the body can only have come from the buffer
+        ByteBuffer fileData = ByteBuffer.wrap(fileBytes.clone()).asReadOnlyBuffer();
+        Files.write(storedFile.path(), new byte[0]);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.RANGE, "bytes=10-15");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        FileTransferUtils.serveFile(storedFile, fileData, CONTENT_TYPE, CACHE_CONTROL, request, response);
+        assertEquals(206, response.getStatus());
+        assertArrayEquals(Arrays.copyOfRange(fileBytes, 10, 16), response.getContentAsByteArray());
+        assertEquals(0, fileData.position());
+    }
+
+    @Test
+    void rejectsUnsatisfiableRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.RANGE, "bytes=100-200");
+        MockHttpServletResponse response = serve(request);
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */%d".formatted(fileBytes.length), response.getHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void ignoresRangeWhenIfRangeDoesNotMatch() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"some-other-version\"");
+        MockHttpServletResponse response = serve(request);
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(fileBytes, response.getContentAsByteArray());
+    }
+
+    @Test
+    void ignoresMalformedRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.RANGE, "bytes=banana");
+        assertEquals(200, serve(request).getStatus());
+    }
+
+    @Test
+    void negotiatesEncoding() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        assertFalse(FileTransferUtils.isEncodingAccepted(request, "gzip"));
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "br, gzip;q=0.8, deflate");
+        assertTrue(FileTransferUtils.isEncodingAccepted(request, "gzip"));
+
+        request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "*, gzip;q=0");
+        assertFalse(FileTransferUtils.isEncodingAccepted(request, "gzip"));
+
+        request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "identity, *;q=0.5");
+        assertTrue(FileTransferUtils.isEncodingAccepted(request, "gzip"));
+    }
+
+}
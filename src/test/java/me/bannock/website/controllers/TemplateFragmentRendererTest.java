@@ -0,0 +1,47 @@
+package me.bannock.website.controllers;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.View;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TemplateFragmentRendererTest {
+
+    @Test
+    void writeListenersAreCollected() throws Exception {
+        List<Throwable> errors = new ArrayList<>();
+        TemplateFragmentRenderer renderer = new TemplateFragmentRenderer((viewName, locale) -> (View) (model, request, response) -> {
+            ServletOutputStream outputStream = response.getOutputStream();
+            outputStream.setWriteListener(new WriteListener() {
+                @Override
+                public void onWritePossible() throws IOException {
+                    assertTrue(outputStream.isReady());
+                    outputStream.write("written when possible".getBytes(StandardCharsets.UTF_8));
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    errors.add(t);
+                }
+            });
+        }, new SimpleMeterRegistry());
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        byte[] rendered = renderer.render("async", Map.of(), new MockHttpServletRequest(), response);
+        assertEquals("written when possible", new String(rendered, StandardCharsets.UTF_8));
+        assertEquals(List.of(), errors);
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+}
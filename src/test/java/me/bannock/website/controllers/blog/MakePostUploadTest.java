@@ -0,0 +1,181 @@
+package me.bannock.website.controllers.blog;
+
+import me.bannock.website.security.Roles;
+import me.bannock.website.security.authentication.UserDetailsImpl;
+import me.bannock.website.services.blog.BlogService;
+import me.bannock.website.services.blog.BlogServiceException;
+import me.bannock.website.services.blog.Post;
+import me.bannock.website.services.blog.StagedAsset;
+import me.bannock.website.services.storage.StagedFile;
+import me.bannock.website.services.user.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.csrf.CsrfToken;
+import org.springframework.security.web.csrf.DefaultCsrfToken;
+import org.springframework.security.web.csrf.DeferredCsrfToken;
+import org.springframework.security.web.csrf.InvalidCsrfTokenException;
+import org.springframework.security.web.csrf.MissingCsrfTokenException;
+import org.springframework.security.web.csrf.XorCsrfTokenRequestAttributeHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.ui.ExtendedModelMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class MakePostUploadTest {
+
+    private static final String BOUNDARY = "postUploadBoundary";
+
+    private BlogService blogService;
+    private BlogController blogController;
+    private CsrfToken csrfToken;
+
+    @BeforeEach
+    void setUp() throws BlogServiceException {
+        blogService = Mockito.mock(BlogService.class);
+        // Reads the whole part like staging does, failing the same way when the upload goes over a limit
+        when(blogService.stageAsset(anyString(), any())).thenAnswer(invocation -> {
+            try {
+                ((InputStream)invocation.getArgument(1)).readAllBytes();
+            } catch (IOException e) {
+                throw new BlogServiceException("Something went wrong while uploading your files", "Failed to stage", e);
+            }
+            return new StagedAsset(invocation.getArgument(0), new StagedFile(Path.of("staged"), 0, "0".repeat(64)));
+        });
+        when(blogService.makePost(anyString(), anyString(), anyLong(), any(), any(StagedAsset.class), anyList()))
+                .thenReturn(new Post(7, "", "", 1, 0, new String[0], new String[0], false));
+
+        blogController = new BlogController(blogService, null, null, null, null, null);
+        ReflectionTestUtils.setField(blogController, "maxPostUploadBytes", 4096);
+        ReflectionTestUtils.setField(blogController, "maxPostUploadParts", 4);
+        ReflectionTestUtils.setField(blogController, "maxPartHeaderBytes", 512);
+        ReflectionTestUtils.setField(blogController, "csrfTokenRequestHandler", new XorCsrfTokenRequestAttributeHandler());
+
+        csrfToken = new DefaultCsrfToken("X-CSRF-TOKEN", "_csrf", "expectedToken");
+        User author = new User(1, "author", "author@example.com", "127.0.0.1", null,
+                List.of(Roles.BlogServiceRoles.MAKE_POSTS), true, false, false, false);
+        UserDetailsImpl authorDetails = new UserDetailsImpl(author);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(authorDetails, null, authorDetails.getAuthorities()));
+    }
+
+    @AfterEach
+    void tearDown(){
+        SecurityContextHolder.clearContext();
+    }
+
+    /**
+     * @param parts The name, file name or null for form fields, and contents of each part
+     * @return A request for the post form, with the csrf token set up like the security filters would
+     */
+    private MockHttpServletRequest newUploadRequest(String[]... parts){
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (String[] part : parts){
+            String disposition = part[1] == null ? "form-data; name=\"%s\"".formatted(part[0]) :
+                    "form-data; name=\"%s\"; filename=\"%s\"".formatted(part[0], part[1]);
+            body.writeBytes("--%s\r\nContent-Disposition: %s\r\n\r\n%s\r\n".formatted(BOUNDARY, disposition, part[2])
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        body.writeBytes("--%s--\r\n".formatted(BOUNDARY).getBytes(StandardCharsets.UTF_8));
+
+        // Sent without a length like a chunked upload, so limits are only found while the parts are read
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/blog/makePost"){
+            @Override
+            public long getContentLengthLong() {
+                return -1;
+            }
+
+            @Override
+            public int getContentLength() {
+                return -1;
+            }
+        };
+        request.setContentType("multipart/form-data; boundary=" + BOUNDARY);
+        request.setContent(body.toByteArray());
+        request.setAttribute(DeferredCsrfToken.class.getName(), new DeferredCsrfToken() {
+            @Override
+            public CsrfToken get() {
+                return csrfToken;
+            }
+
+            @Override
+            public boolean isGenerated() {
+                return false;
+            }
+        });
+        return request;
+    }
+
+    /**
+     * @return The token that would be put in the post form, which is masked differently each time
+     */
+    private String getFormToken(){
+        MockHttpServletRequest formRequest = new MockHttpServletRequest();
+        new XorCsrfTokenRequestAttributeHandler().handle(formRequest, new MockHttpServletResponse(), () -> csrfToken);
+        return ((CsrfToken)formRequest.getAttribute(CsrfToken.class.getName())).getToken();
+    }
+
+    @Test
+    void postsAreStreamedAfterTheCsrfToken() throws BlogServiceException {
+        MockHttpServletRequest request = newUploadRequest(
+                new String[]{"_csrf", null, getFormToken()},
+                new String[]{"titleHtml", null, "<b>Title</b>"},
+                new String[]{"index", "index.html", "<p>Hello</p>"},
+                new String[]{"assets", "style.css", "p {}"});
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        blogController.postMakePost(request, response, new ExtendedModelMap());
+        assertEquals("7/", response.getRedirectedUrl());
+        verify(blogService).stageAsset(eq("index.html"), any());
+        verify(blogService).stageAsset(eq("style.css"), any());
+        verify(blogService).makePost(eq("<b>Title</b>"), eq(""), eq(1L), any(), any(StagedAsset.class), anyList());
+    }
+
+    @Test
+    void uploadsWithoutAValidCsrfTokenAreRejectedBeforeStaging() throws BlogServiceException {
+        assertThrows(MissingCsrfTokenException.class, () -> blogController.postMakePost(newUploadRequest(
+                new String[]{"index", "index.html", "<p>Hello</p>"},
+                new String[]{"_csrf", null, getFormToken()}), new MockHttpServletResponse(), new ExtendedModelMap()));
+        assertThrows(InvalidCsrfTokenException.class, () -> blogController.postMakePost(newUploadRequest(
+                new String[]{"_csrf", null, "expectedToken"},
+                new String[]{"index", "index.html", "<p>Hello</p>"}), new MockHttpServletResponse(), new ExtendedModelMap()));
+        verify(blogService, never()).stageAsset(anyString(), any());
+    }
+
+    @Test
+    void limitsHitWhileStagingAreShownToTheUser() throws BlogServiceException {
+        WrappedBlogServiceException tooLarge = assertThrows(WrappedBlogServiceException.class,
+                () -> blogController.postMakePost(newUploadRequest(
+                        new String[]{"_csrf", null, getFormToken()},
+                        new String[]{"index", "index.html", "a".repeat(8192)}),
+                        new MockHttpServletResponse(), new ExtendedModelMap()));
+        assertEquals("Your upload must not be larger than 4096 bytes", tooLarge.getUserFriendlyError());
+
+        WrappedBlogServiceException tooManyParts = assertThrows(WrappedBlogServiceException.class,
+                () -> blogController.postMakePost(newUploadRequest(
+                        new String[]{"_csrf", null, getFormToken()},
+                        new String[]{"index", "index.html", "<p>Hello</p>"},
+                        new String[]{"assets", "a.css", "p {}"},
+                        new String[]{"assets", "b.css", "p {}"},
+                        new String[]{"assets", "c.css", "p {}"}),
+                        new MockHttpServletResponse(), new ExtendedModelMap()));
+        assertEquals("Your upload must not have more than 4 files", tooManyParts.getUserFriendlyError());
+        verify(blogService, times(2)).discardStagedAssets(anyList());
+        verify(blogService, never()).makePost(anyString(), anyString(), anyLong(), any(), any(StagedAsset.class), anyList());
+    }
+
+}
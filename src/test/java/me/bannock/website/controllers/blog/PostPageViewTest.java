@@ -0,0 +1,60 @@
+package me.bannock.website.controllers.blog;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.bannock.website.controllers.TemplateFragmentRenderer;
+import me.bannock.website.services.blog.cache.PostPageCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.View;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PostPageViewTest {
+
+    private List<String> renderedViews;
+    private SimpleMeterRegistry meterRegistry;
+    private TemplateFragmentRenderer renderer;
+    private PostPageCache postPageCache;
+
+    @BeforeEach
+    void setUp(){
+        renderedViews = new ArrayList<>();
+        meterRegistry = new SimpleMeterRegistry();
+        // Each fragment renders as its own selector so the assembled page shows the order they were written in
+        renderer = new TemplateFragmentRenderer((viewName, locale) -> (View) (model, request, response) -> {
+            renderedViews.add(viewName);
+            response.getWriter().write("[%s]".formatted(viewName.substring(viewName.indexOf("::") + 3)));
+        }, meterRegistry);
+        postPageCache = new PostPageCache(meterRegistry, 1024 * 1024, 60000);
+    }
+
+    private String render(PostPageView view) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        view.render(Map.of(), new MockHttpServletRequest(), response);
+        assertEquals(response.getContentAsByteArray().length, response.getContentLengthLong());
+        return response.getContentAsString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void staticPartsAreRenderedOnce() throws Exception {
+        String firstPage = render(new PostPageView(1, null, postPageCache, renderer));
+        assertEquals("<!DOCTYPE html>\n<html lang=\"en\">\n[postHead]\n<body>\n[pageHeaders][postContent]" +
+                "[comments][pageFooters]\n</body>\n</html>", firstPage);
+        assertTrue(postPageCache.get(1).isPresent());
+
+        renderedViews.clear();
+        String secondPage = render(new PostPageView(1, postPageCache.get(1).get(), postPageCache, renderer));
+        assertEquals(firstPage, secondPage);
+        assertEquals(List.of("blog/post :: pageHeaders", "blog/post :: comments"), renderedViews);
+        assertEquals(2, meterRegistry.get("templates.render").tag("template", "blog/post :: comments")
+                .timer().count());
+    }
+
+}
@@ -0,0 +1,196 @@
+package me.bannock.website.logging;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
+import ch.qos.logback.core.AppenderBase;
+import com.github.loki4j.logback.AbstractLoki4jEncoder;
+import com.github.loki4j.logback.JavaHttpSender;
+import com.github.loki4j.logback.JsonEncoder;
+import com.github.loki4j.logback.Loki4jAppender;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NonBlockingAsyncAppenderTest {
+
+    // The global registry does nothing until a registry is added to it, which Spring normally does
+    private static final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeAll
+    static void addMeterRegistry(){
+        Metrics.addRegistry(meterRegistry);
+    }
+
+    @AfterAll
+    static void removeMeterRegistry(){
+        Metrics.removeRegistry(meterRegistry);
+    }
+
+    @Test
+    void slowLokiDoesNotBlockLogging() throws IOException, InterruptedException {
+        // Stands in for a Loki server that takes far too long to accept logs
+        AtomicInteger receivedBatches = new AtomicInteger();
+        HttpServer lokiStub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        lokiStub.createContext("/loki/api/v1/push", exchange -> {
+            try {
+                exchange.getRequestBody().readAllBytes();
+                Thread.sleep(2000);
+                receivedBatches.incrementAndGet();
+                exchange.sendResponseHeaders(204, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        lokiStub.start();
+
+        LoggerContext loggerContext = newLoggerContext();
+        JavaHttpSender sender = new JavaHttpSender();
+        sender.setUrl("http://127.0.0.1:%s/loki/api/v1/push".formatted(lokiStub.getAddress().getPort()));
+        JsonEncoder encoder = new JsonEncoder();
+        encoder.setContext(loggerContext);
+        AbstractLoki4jEncoder.LabelCfg label = new AbstractLoki4jEncoder.LabelCfg();
+        label.setPattern("app=test,level=%level");
+        encoder.setLabel(label);
+        Loki4jAppender lokiAppender = new Loki4jAppender();
+        lokiAppender.setContext(loggerContext);
+        lokiAppender.setHttp(sender);
+        lokiAppender.setFormat(encoder);
+        lokiAppender.setBatchMaxItems(100);
+        lokiAppender.setBatchTimeoutMs(100);
+        lokiAppender.start();
+
+        NonBlockingAsyncAppender asyncAppender = startAsyncAppender(loggerContext, "slowLoki", 64,
+                NonBlockingAsyncAppender.OverflowPolicy.DROP_NEWEST, lokiAppender);
+        Logger logger = getLogger(loggerContext, asyncAppender);
+        try {
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < 10000; i++)
+                logger.info("Test event, i={}", i);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            assertTrue(elapsedMillis < 1000, "Logging took %sms".formatted(elapsedMillis));
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (receivedBatches.get() == 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+            assertTrue(receivedBatches.get() > 0);
+        } finally {
+            asyncAppender.stop();
+            lokiStub.stop(0);
+        }
+    }
+
+    @Test
+    void dropsNewestWhenFull() throws InterruptedException {
+        BlockedAppender blockedAppender = new BlockedAppender();
+        NonBlockingAsyncAppender asyncAppender = startAsyncAppender(newLoggerContext(), "dropsNewest", 4,
+                NonBlockingAsyncAppender.OverflowPolicy.DROP_NEWEST, blockedAppender);
+        Logger logger = getLogger((LoggerContext)asyncAppender.getContext(), asyncAppender);
+        logUntilDropped(logger, "dropsNewest");
+        logger.info("Last event");
+        blockedAppender.release();
+        asyncAppender.stop();
+        assertFalse(blockedAppender.messages.isEmpty());
+        assertNotEquals("Last event", blockedAppender.messages.get(blockedAppender.messages.size() - 1));
+    }
+
+    @Test
+    void dropsOldestWhenFull() throws InterruptedException {
+        BlockedAppender blockedAppender = new BlockedAppender();
+        NonBlockingAsyncAppender asyncAppender = startAsyncAppender(newLoggerContext(), "dropsOldest", 4,
+                NonBlockingAsyncAppender.OverflowPolicy.DROP_OLDEST, blockedAppender);
+        Logger logger = getLogger((LoggerContext)asyncAppender.getContext(), asyncAppender);
+        logUntilDropped(logger, "dropsOldest");
+        logger.info("Last event");
+        blockedAppender.release();
+        asyncAppender.stop();
+        assertEquals("Last event", blockedAppender.messages.get(blockedAppender.messages.size() - 1));
+    }
+
+    /**
+     * Logs until the async appender's queue overflows
+     * @param logger The logger to log with
+     * @param appenderName The name of the async appender
+     */
+    private void logUntilDropped(Logger logger, String appenderName){
+        Counter droppedEvents = Metrics.globalRegistry.find("logging.async.dropped")
+                .tag("appender", appenderName).counter();
+        assertNotNull(droppedEvents);
+        for (int i = 0; i < 100; i++)
+            logger.info("Event {}", i);
+        assertTrue(droppedEvents.count() > 0);
+    }
+
+    private LoggerContext newLoggerContext(){
+        LoggerContext loggerContext = new LoggerContext();
+        loggerContext.setMDCAdapter(new LogbackMDCAdapter());
+        return loggerContext;
+    }
+
+    private NonBlockingAsyncAppender startAsyncAppender(LoggerContext loggerContext, String name, int queueSize,
+                                                        NonBlockingAsyncAppender.OverflowPolicy overflowPolicy,
+                                                        ch.qos.logback.core.Appender<ILoggingEvent> appender){
+        NonBlockingAsyncAppender asyncAppender = new NonBlockingAsyncAppender();
+        asyncAppender.setContext(loggerContext);
+        asyncAppender.setName(name);
+        asyncAppender.setQueueSize(queueSize);
+        asyncAppender.setOverflowPolicy(overflowPolicy);
+        asyncAppender.addAppender(appender);
+        asyncAppender.start();
+        assertTrue(asyncAppender.isStarted());
+        return asyncAppender;
+    }
+
+    private Logger getLogger(LoggerContext loggerContext, NonBlockingAsyncAppender asyncAppender){
+        Logger logger = loggerContext.getLogger(NonBlockingAsyncAppenderTest.class);
+        logger.setAdditive(false);
+        logger.addAppender(asyncAppender);
+        return logger;
+    }
+
+    /**
+     * Records messages, but not until it's released
+     */
+    private static class BlockedAppender extends AppenderBase<ILoggingEvent> {
+
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+
+        {
+            start();
+        }
+
+        @Override
+        protected void append(ILoggingEvent event) {
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            messages.add(event.getFormattedMessage());
+        }
+
+        public void release(){
+            released.countDown();
+        }
+
+    }
+
+}
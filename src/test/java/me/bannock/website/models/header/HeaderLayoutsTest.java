@@ -0,0 +1,38 @@
+package me.bannock.website.models.header;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeaderLayoutsTest {
+
+    @Test
+    void layoutsFitTheHeaderWithoutColliding(){
+        HeaderLayouts headerLayouts = new HeaderLayouts(10, 64);
+        for (int i = 0; i < 1000; i++){
+            boolean loggedIn = i % 2 == 0;
+            Map<HeaderLink, Integer[]> layout = headerLayouts.getLayout(loggedIn);
+            assertEquals(loggedIn ? "Logout" : "Login", layout.keySet().iterator().next().getDisplayText());
+
+            List<Map.Entry<HeaderLink, Integer[]>> links = new ArrayList<>(layout.entrySet());
+            for (int first = 0; first < links.size(); first++){
+                HeaderLink link = links.get(first).getKey();
+                Integer[] position = links.get(first).getValue();
+                assertTrue(position[0] + link.getWidth() <= 800 && position[1] + link.getHeight() <= 90);
+                for (int second = first + 1; second < links.size(); second++){
+                    HeaderLink otherLink = links.get(second).getKey();
+                    Integer[] otherPosition = links.get(second).getValue();
+                    assertFalse(position[0] < otherPosition[0] + otherLink.getWidth()
+                            && position[0] + link.getWidth() > otherPosition[0]
+                            && position[1] < otherPosition[1] + otherLink.getHeight()
+                            && position[1] + link.getHeight() > otherPosition[1]);
+                }
+            }
+        }
+    }
+
+}
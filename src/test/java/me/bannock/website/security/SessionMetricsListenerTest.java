@@ -0,0 +1,95 @@
+package me.bannock.website.security;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.HttpSessionBindingEvent;
+import me.bannock.website.security.authentication.UserDetailsImpl;
+import me.bannock.website.services.user.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionMetricsListenerTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private SessionMetricsListener listener;
+
+    @BeforeEach
+    void setUp(){
+        meterRegistry = new SimpleMeterRegistry();
+        listener = new SessionMetricsListener(meterRegistry);
+    }
+
+    @Test
+    void loggedInSessionSizeIsRecorded(){
+        User user = new User(1, "Bannock", "bannock@localhost", "127.0.0.1", "hash",
+                List.of("ROLE_USER"), true, false, false, false);
+        UserDetailsImpl principal = new UserDetailsImpl(user);
+        MockHttpSession session = new MockHttpSession();
+        String name = HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY;
+        SecurityContextImpl context = new SecurityContextImpl(UsernamePasswordAuthenticationToken
+                .authenticated(principal, null, principal.getAuthorities()));
+        session.setAttribute(name, context);
+
+        listener.attributeAdded(new HttpSessionBindingEvent(session, name, context));
+        DistributionSummary sessionSizes = meterRegistry.get("http.sessions.size").summary();
+        assertEquals(1, sessionSizes.count());
+        assertTrue(sessionSizes.totalAmount() > 0);
+    }
+
+    @Test
+    void dummyAccountSessionSizeIsRecorded(){
+        // Built the same way as when a comment gives an anonymous user a dummy account
+        User user = new User(2, "Anonymous", "", "127.0.0.1", null,
+                List.of("ROLE_USER"), false, false, false, true);
+        MockHttpSession session = new MockHttpSession();
+        String name = HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY;
+        SecurityContextImpl context = new SecurityContextImpl(new UserDetailsImpl(user).toAuthentication());
+        session.setAttribute(name, context);
+
+        listener.attributeAdded(new HttpSessionBindingEvent(session, name, context));
+        assertEquals(1, meterRegistry.get("http.sessions.size").summary().count());
+    }
+
+    @Test
+    void passwordHashesAreNotSerialized() throws Exception {
+        String passwordHash = "$2a$10$" + "a".repeat(53);
+        User user = new User(1, "Bannock", "bannock@localhost", "127.0.0.1", passwordHash,
+                List.of("ROLE_USER"), true, false, false, false);
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try(ObjectOutputStream out = new ObjectOutputStream(serialized)){
+            out.writeObject(new SecurityContextImpl(new UserDetailsImpl(user).toAuthentication()));
+        }
+
+        assertFalse(serialized.toString(StandardCharsets.ISO_8859_1).contains(passwordHash));
+        try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized.toByteArray()))){
+            SecurityContextImpl context = (SecurityContextImpl)in.readObject();
+            UserDetailsImpl principal = (UserDetailsImpl)context.getAuthentication().getPrincipal();
+            assertEquals(1, principal.getUserId());
+            assertNull(principal.getPassword());
+        }
+    }
+
+    @Test
+    void unserializableSessionIsNotRecorded(){
+        MockHttpSession session = new MockHttpSession();
+        Object value = new Object();
+        session.setAttribute("unserializable", value);
+
+        listener.attributeAdded(new HttpSessionBindingEvent(session, "unserializable", value));
+        assertEquals(0, meterRegistry.get("http.sessions.size").summary().count());
+    }
+
+}
@@ -0,0 +1,152 @@
+package me.bannock.website.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import me.bannock.website.services.user.impl.hibernate.HibernateUserServiceImpl;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.FilterChainProxy;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.csrf.CsrfToken;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.web.SpringJUnitWebConfig;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that public files skip the session and per-request security setup, and compares how long an asset
+ * request spends in the security filters on the static chain against the main chain. Run the comparison
+ * with -Dbannock.loadTests=true
+ */
+@SpringJUnitWebConfig(StaticFilterChainTest.TestConfiguration.class)
+@TestPropertySource(locations = "classpath:application.properties")
+class StaticFilterChainTest {
+
+    private static final String ASSET_PATH = "/blog/1/image.png";
+    private static final int WARMUP_REQUESTS = 20000;
+    private static final int MEASURED_REQUESTS = 100000;
+
+    private final Logger logger = LogManager.getLogger();
+
+    @Autowired
+    private FilterChainProxy filterChainProxy;
+
+    @Test
+    void assetsAreServedWithoutSessions() throws Exception {
+        AtomicReference<Authentication> firstAuth = new AtomicReference<>();
+        AtomicReference<Authentication> secondAuth = new AtomicReference<>();
+        MockHttpServletRequest request = newRequest(ASSET_PATH);
+        filterChainProxy.doFilter(request, new MockHttpServletResponse(), (req, res) ->
+                firstAuth.set(SecurityContextHolder.getContext().getAuthentication()));
+        filterChainProxy.doFilter(newRequest(ASSET_PATH), new MockHttpServletResponse(), (req, res) ->
+                secondAuth.set(SecurityContextHolder.getContext().getAuthentication()));
+
+        assertNull(request.getSession(false));
+        assertInstanceOf(AnonymousAuthenticationToken.class, firstAuth.get());
+        assertSame(firstAuth.get(), secondAuth.get());
+        assertThrows(UnsupportedOperationException.class, () -> {
+            filterChainProxy.doFilter(newRequest(ASSET_PATH), new MockHttpServletResponse(), (req, res) ->
+                    SecurityContextHolder.getContext().setAuthentication(null));
+        });
+    }
+
+    @Test
+    void anonymousPageReadsAreServedWithoutSessions() throws Exception {
+        MockHttpServletRequest request = newRequest("/blog/1/");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        // Pages with a comment or login form read the csrf token while rendering
+        filterChainProxy.doFilter(request, response, (req, res) ->
+                ((CsrfToken)req.getAttribute(CsrfToken.class.getName())).getToken());
+
+        assertNull(request.getSession(false));
+        assertNotNull(response.getCookie("XSRF-TOKEN"));
+    }
+
+    @Test
+    void postPagesUseTheMainChain() throws Exception {
+        List<SecurityFilterChain> chains = filterChainProxy.getFilterChains();
+        assertTrue(chains.get(0).matches(newRequest(ASSET_PATH)));
+        assertTrue(chains.get(0).matches(newRequest("/resources/core/css/main.css")));
+        assertFalse(chains.get(0).matches(newRequest("/blog/1/")));
+        assertFalse(chains.get(0).matches(newRequest("/blog/makePost")));
+        MockHttpServletRequest commentRequest = newRequest(ASSET_PATH);
+        commentRequest.setMethod("POST");
+        assertFalse(chains.get(0).matches(commentRequest));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "bannock.loadTests", matches = "true")
+    void staticChainIsFaster() throws Exception {
+        List<SecurityFilterChain> chains = filterChainProxy.getFilterChains();
+        FilterChainProxy staticChain = new FilterChainProxy(chains.get(0));
+        FilterChainProxy mainChain = new FilterChainProxy(chains.get(1));
+
+        measure(staticChain, WARMUP_REQUESTS);
+        measure(mainChain, WARMUP_REQUESTS);
+        long[] staticResult = measure(staticChain, MEASURED_REQUESTS);
+        long[] mainResult = measure(mainChain, MEASURED_REQUESTS);
+        logger.info("Measured security filter overhead per asset request, requests={}, staticNanos={}, " +
+                        "staticAllocatedBytes={}, mainNanos={}, mainAllocatedBytes={}", MEASURED_REQUESTS,
+                staticResult[0], staticResult[1], mainResult[0], mainResult[1]);
+        assertTrue(staticResult[0] < mainResult[0]);
+    }
+
+    /**
+     * @param chain The filters to send asset requests through
+     * @param requests The amount of requests to send
+     * @return The average nanoseconds and bytes allocated per request
+     */
+    private long[] measure(FilterChainProxy chain, int requests) throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        FilterChain servlet = (req, res) -> {};
+        long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < requests; i++)
+            chain.doFilter(newRequest(ASSET_PATH), new MockHttpServletResponse(), servlet);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocated = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        return new long[]{elapsedNanos / requests, allocated / requests};
+    }
+
+    private MockHttpServletRequest newRequest(String path){
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.setServletPath(path);
+        return request;
+    }
+
+    @Configuration
+    @EnableWebMvc
+    @Import(SecurityConfiguration.class)
+    static class TestConfiguration {
+
+        @Bean
+        public HibernateUserServiceImpl userService(){
+            return Mockito.mock(HibernateUserServiceImpl.class);
+        }
+
+        @Bean
+        public MeterRegistry meterRegistry(){
+            return new SimpleMeterRegistry();
+        }
+
+    }
+
+}
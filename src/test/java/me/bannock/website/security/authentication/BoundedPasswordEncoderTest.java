@@ -0,0 +1,78 @@
+package me.bannock.website.security.authentication;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedPasswordEncoderTest {
+
+    @Test
+    void encodeAndMatch() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        BoundedPasswordEncoder passwordEncoder = new BoundedPasswordEncoder(new BCryptPasswordEncoder(4),
+                1, 1, 5000, meterRegistry);
+        String encodedPassword = passwordEncoder.encode("password");
+        assertTrue(passwordEncoder.matches("password", encodedPassword));
+        assertFalse(passwordEncoder.matches("not the password", encodedPassword));
+        assertEquals(3, meterRegistry.get("security.password.hash").timer().count());
+        assertEquals(3, meterRegistry.get("security.password.queueWait").timer().count());
+        passwordEncoder.destroy();
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() throws InterruptedException {
+        CountDownLatch hashStarted = new CountDownLatch(1);
+        CountDownLatch releaseHashes = new CountDownLatch(1);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        BoundedPasswordEncoder passwordEncoder = new BoundedPasswordEncoder(new BlockedPasswordEncoder(hashStarted, releaseHashes),
+                1, 1, 5000, meterRegistry);
+
+        CompletableFuture<Boolean> runningHash = CompletableFuture.supplyAsync(() -> passwordEncoder.matches("a", "a"));
+        assertTrue(hashStarted.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Boolean> queuedHash = CompletableFuture.supplyAsync(() -> passwordEncoder.matches("b", "b"));
+        while (meterRegistry.get("security.password.queued").gauge().value() < 1)
+            Thread.sleep(10);
+
+        long startNanos = System.nanoTime();
+        assertThrows(RejectedExecutionException.class, () -> passwordEncoder.matches("c", "c"));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) < 1000);
+        assertEquals(1, meterRegistry.get("security.password.rejected").counter().count());
+
+        releaseHashes.countDown();
+        assertTrue(runningHash.join());
+        assertTrue(queuedHash.join());
+        passwordEncoder.destroy();
+    }
+
+    /**
+     * Doesn't finish hashing until released
+     */
+    private record BlockedPasswordEncoder(CountDownLatch hashStarted, CountDownLatch releaseHashes) implements PasswordEncoder {
+
+        @Override
+        public String encode(CharSequence rawPassword) {
+            return rawPassword.toString();
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            hashStarted.countDown();
+            try {
+                releaseHashes.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return rawPassword.toString().equals(encodedPassword);
+        }
+
+    }
+
+}
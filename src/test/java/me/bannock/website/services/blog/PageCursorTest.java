@@ -0,0 +1,24 @@
+package me.bannock.website.services.blog;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageCursorTest {
+
+    @Test
+    void encodeAndDecode() throws BlogServiceException {
+        PageCursor cursor = new PageCursor(System.currentTimeMillis(), 1234);
+        assertEquals(cursor, PageCursor.decode(cursor.encode()));
+        PageCursor negativeCursor = new PageCursor(-1, Long.MIN_VALUE);
+        assertEquals(negativeCursor, PageCursor.decode(negativeCursor.encode()));
+    }
+
+    @Test
+    void decodeInvalidCursor() {
+        assertThrows(BlogServiceException.class, () -> PageCursor.decode("not a cursor!"));
+        assertThrows(BlogServiceException.class, () -> PageCursor.decode("YWJj"));
+        assertThrows(BlogServiceException.class, () -> PageCursor.decode(""));
+    }
+
+}
@@ -0,0 +1,29 @@
+package me.bannock.website.services.blog.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PostIndexCacheTest {
+
+    @Test
+    void cachedIndexesAreServedUntilInvalidated(){
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PostIndexCache postIndexCache = new PostIndexCache(meterRegistry, 1024);
+
+        assertTrue(postIndexCache.get(1).isEmpty());
+        postIndexCache.put(1, "<p>Some post</p>");
+        assertEquals("<p>Some post</p>", postIndexCache.get(1).orElseThrow());
+        assertTrue(postIndexCache.get(2).isEmpty());
+
+        postIndexCache.invalidate(1);
+        assertTrue(postIndexCache.get(1).isEmpty());
+
+        assertEquals(1, meterRegistry.get("cache.gets").tag("cache", "blog.postIndexes")
+                .tag("result", "hit").functionCounter().count());
+        assertEquals(3, meterRegistry.get("cache.gets").tag("cache", "blog.postIndexes")
+                .tag("result", "miss").functionCounter().count());
+    }
+
+}
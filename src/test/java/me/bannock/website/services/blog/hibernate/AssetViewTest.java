@@ -0,0 +1,65 @@
+package me.bannock.website.services.blog.hibernate;
+
+import me.bannock.website.services.blog.AssetView;
+import me.bannock.website.services.blog.BlogServiceException;
+import me.bannock.website.services.storage.StorageService;
+import me.bannock.website.services.storage.StoredFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AssetViewTest {
+
+    private StorageService storageService;
+    private PostRepository postRepository;
+    private PlatformTransactionManager transactionManager;
+    private HibernateBlogServiceImpl blogService;
+
+    @BeforeEach
+    void setUp(){
+        storageService = Mockito.mock(StorageService.class);
+        postRepository = Mockito.mock(PostRepository.class);
+        transactionManager = Mockito.mock(PlatformTransactionManager.class);
+        blogService = new HibernateBlogServiceImpl(storageService, postRepository, Mockito.mock(CommentRepository.class),
+                null, null, Mockito.mock(BlogCountsCache.class), null, transactionManager, null, null);
+    }
+
+    @Test
+    void filesAreLoadedAfterTheTransactionEnds() throws Exception {
+        StoredFile file = new StoredFile(Path.of("style.css"), 10, 0);
+        when(postRepository.findDeletedByPostId(5L)).thenReturn(Optional.of(false));
+        when(postRepository.findAssetMimeType(5L, "style.css")).thenReturn(Optional.of("text/css"));
+        when(storageService.loadFile("blog/5/assets", "style.css")).thenReturn(file);
+        when(storageService.findFile(anyString(), anyString())).thenReturn(Optional.empty());
+
+        AssetView assetView = blogService.getAssetView(5L, "style.css");
+        assertSame(file, assetView.file());
+        assertEquals("text/css", assetView.mimeType());
+
+        InOrder order = inOrder(transactionManager, postRepository, storageService);
+        order.verify(transactionManager).getTransaction(argThat(definition -> definition.isReadOnly()));
+        order.verify(postRepository).findAssetMimeType(5L, "style.css");
+        order.verify(transactionManager).commit(any());
+        order.verify(storageService).loadFile("blog/5/assets", "style.css");
+    }
+
+    @Test
+    void deletedPostsLoadNoFiles() throws IOException {
+        when(postRepository.findDeletedByPostId(5L)).thenReturn(Optional.of(true));
+        when(postRepository.findAssetMimeType(5L, "style.css")).thenReturn(Optional.empty());
+
+        assertThrows(BlogServiceException.class, () -> blogService.getAssetView(5L, "style.css"));
+        verifyNoInteractions(storageService);
+    }
+
+}
@@ -0,0 +1,77 @@
+package me.bannock.website.services.blog.hibernate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BlogCountsCacheTest {
+
+    private PostRepository postRepository;
+    private CommentRepository commentRepository;
+    private BlogCountsCache blogCountsCache;
+
+    @BeforeEach
+    void setUp(){
+        postRepository = Mockito.mock(PostRepository.class);
+        commentRepository = Mockito.mock(CommentRepository.class);
+        blogCountsCache = new BlogCountsCache(postRepository, commentRepository, 100);
+    }
+
+    @Test
+    void countsAreLoadedOnceAndKeptUpToDate(){
+        when(postRepository.countByDeletedFalse()).thenReturn(5L);
+        when(commentRepository.countByPostIdAndDeletedFalse(1)).thenReturn(3L);
+
+        assertEquals(5, blogCountsCache.getFeaturedPostCount());
+        blogCountsCache.postMade();
+        blogCountsCache.postMade();
+        blogCountsCache.postDeleted();
+        assertEquals(6, blogCountsCache.getFeaturedPostCount());
+
+        assertEquals(3, blogCountsCache.getCommentCount(1));
+        blogCountsCache.commentMade(1);
+        assertEquals(4, blogCountsCache.getCommentCount(1));
+
+        verify(postRepository, times(1)).countByDeletedFalse();
+        verify(commentRepository, times(1)).countByPostIdAndDeletedFalse(1);
+    }
+
+    @Test
+    void countsNeverGoNegative(){
+        when(postRepository.countByDeletedFalse()).thenReturn(0L);
+        assertEquals(0, blogCountsCache.getFeaturedPostCount());
+        blogCountsCache.postDeleted();
+        assertEquals(0, blogCountsCache.getFeaturedPostCount());
+    }
+
+    @Test
+    void reconcileReloadsCounts(){
+        when(postRepository.countByDeletedFalse()).thenReturn(5L, 9L);
+        when(commentRepository.countByPostIdAndDeletedFalse(1)).thenReturn(3L, 7L);
+        assertEquals(5, blogCountsCache.getFeaturedPostCount());
+        assertEquals(3, blogCountsCache.getCommentCount(1));
+
+        blogCountsCache.reconcile();
+        assertEquals(9, blogCountsCache.getFeaturedPostCount());
+        assertEquals(7, blogCountsCache.getCommentCount(1));
+    }
+
+    @Test
+    void changesMadeWhileLoadingAreKept(){
+        // Another thread commits a post and a comment after the count queries have read the table
+        when(postRepository.countByDeletedFalse()).thenAnswer(invocation -> {
+            blogCountsCache.postMade();
+            return 5L;
+        });
+        when(commentRepository.countByPostIdAndDeletedFalse(1)).thenAnswer(invocation -> {
+            blogCountsCache.commentMade(1);
+            return 3L;
+        });
+        assertEquals(6, blogCountsCache.getFeaturedPostCount());
+        assertEquals(4, blogCountsCache.getCommentCount(1));
+    }
+
+}
@@ -1,15 +1,24 @@
 package me.bannock.website.services.blog.hibernate;
 
+import jakarta.persistence.EntityManagerFactory;
 import me.bannock.website.security.Roles;
 import me.bannock.website.services.blog.Asset;
 import me.bannock.website.services.blog.BlogServiceException;
 import me.bannock.website.services.blog.Comment;
+import me.bannock.website.services.blog.PageCursor;
 import me.bannock.website.services.blog.Post;
+import me.bannock.website.services.blog.PostView;
+import me.bannock.website.services.user.User;
+import me.bannock.website.services.user.UserService;
+import me.bannock.website.services.user.UserServiceException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.security.test.context.support.WithMockUser;
 
@@ -18,11 +27,15 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
-@SpringBootTest
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
 class HibernateBlogServiceImplTest {
 
     private final Logger logger = LogManager.getLogger();
@@ -30,6 +43,18 @@ class HibernateBlogServiceImplTest {
     @Autowired
     private HibernateBlogServiceImpl hibernateBlogService;
 
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Value("${bannock.blog.featuredPageSize}")
+    private int featuredPageSize;
+
+    @Value("${bannock.blog.commentPageSize}")
+    private int commentPageSize;
+
     @Test
     @WithMockUser(username = "test", authorities = {
             Roles.BlogServiceRoles.MAKE_POSTS, Roles.BlogServiceRoles.READ_POSTS,
@@ -68,10 +93,38 @@ class HibernateBlogServiceImplTest {
         assertEquals(post, hibernateBlogService.getPost(post.postId()));
         assertArrayEquals(indexBytes, hibernateBlogService.getIndex(post.postId()).readAllBytes());
         assertArrayEquals(coolAssetBytes, hibernateBlogService.getAsset(post.postId(), myCoolAssetName).readAllBytes());
+        assertEquals("image/png", hibernateBlogService.getAssetView(post.postId(), myCoolAssetName).mimeType());
         logger.info("Created test post, post={}", post);
         return post;
     }
 
+    @Test
+    @WithMockUser(username = "test", authorities = {
+            Roles.BlogServiceRoles.MAKE_POSTS, Roles.BlogServiceRoles.READ_POSTS,
+            Roles.StorageServiceRoles.SAVE_DATA, Roles.StorageServiceRoles.LOAD_DATA
+    })
+    public void failedPostLeavesNoStagedFiles() throws IOException {
+        Path stagingDir = Path.of("application/.staging");
+        long stagedFilesBefore = countFiles(stagingDir);
+        List<Asset> assets = new ArrayList<>();
+        for (int i = 0; i < 16; i++)
+            assets.add(new Asset("asset%s.txt".formatted(i), new ByteArrayInputStream(new byte[4096])));
+
+        // Titles longer than 256 characters are rejected after every asset has been staged
+        assertThrows(BlogServiceException.class, () -> hibernateBlogService.makePost(
+                "a".repeat(257), "Failed post", 0, new String[0],
+                new Asset("index.html", new ByteArrayInputStream(new byte[16])), assets.toArray(new Asset[0])));
+        assertEquals(stagedFilesBefore, countFiles(stagingDir));
+    }
+
+    private long countFiles(Path dir) throws IOException {
+        if (!Files.isDirectory(dir))
+            return 0;
+        try(Stream<Path> files = Files.list(dir)){
+            return files.count();
+        }
+    }
+
     @Test
     @Disabled
     @WithMockUser(username = "test", authorities = {
@@ -98,4 +151,115 @@ class HibernateBlogServiceImplTest {
         assertTrue(lastPagePostComments.stream().anyMatch(comment::equals));
     }
 
-}
\ No newline at end of file
+    @Test
+    @WithMockUser(username = "test", authorities = {
+            Roles.BlogServiceRoles.MAKE_POSTS, Roles.BlogServiceRoles.READ_POSTS,
+            Roles.StorageServiceRoles.SAVE_DATA, Roles.StorageServiceRoles.LOAD_DATA
+    })
+    public void featuredPostsUseFixedQueryCount() throws IOException, BlogServiceException {
+        // Make sure there's at least a full page of posts so every post's collections have to be loaded
+        for (int i = 0; i < featuredPageSize; i++)
+            makeAndGetPost();
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        List<Post> featuredPosts = hibernateBlogService.getFeaturedPosts(0);
+        long statementCount = statistics.getPrepareStatementCount();
+        logger.info("Loaded featured posts, postCount={}, statementCount={}", featuredPosts.size(), statementCount);
+
+        assertEquals(featuredPageSize, featuredPosts.size());
+        assertTrue(featuredPosts.stream().allMatch(post -> post.tags().length > 0 && post.assetFilePaths().length > 0));
+        // One query for the page of ids, one for the tags, and one for the asset paths
+        assertEquals(3, statementCount);
+    }
+
+    @Test
+    @WithMockUser(username = "test", authorities = {
+            Roles.BlogServiceRoles.MAKE_POSTS, Roles.BlogServiceRoles.READ_POSTS,
+            Roles.StorageServiceRoles.SAVE_DATA, Roles.StorageServiceRoles.LOAD_DATA
+    })
+    public void featuredPostCursorsMatchPages() throws IOException, BlogServiceException {
+        for (int i = 0; i < featuredPageSize * 2; i++)
+            makeAndGetPost();
+
+        List<Post> firstPage = hibernateBlogService.getFeaturedPosts(0);
+        List<Post> secondPage = hibernateBlogService.getFeaturedPosts(1);
+        assertEquals(secondPage, hibernateBlogService.getFeaturedPostsAfter(PageCursor.of(firstPage.get(firstPage.size() - 1))));
+        assertEquals(firstPage, hibernateBlogService.getFeaturedPostsBefore(PageCursor.of(secondPage.get(0))));
+    }
+
+    @Test
+    @WithMockUser(username = "test", authorities = {
+            Roles.BlogServiceRoles.MAKE_POSTS, Roles.BlogServiceRoles.READ_POSTS,
+            Roles.BlogServiceRoles.MAKE_COMMENTS, Roles.BlogServiceRoles.READ_COMMENTS,
+            Roles.StorageServiceRoles.SAVE_DATA, Roles.StorageServiceRoles.LOAD_DATA
+    })
+    public void postViewUsesFixedQueryCount() throws IOException, BlogServiceException, UserServiceException {
+        String authorName = "postViewTest_%s".formatted(System.nanoTime());
+        User author = userService.registerDummyUser(authorName, "%s@example.com".formatted(authorName), "127.0.0.1");
+        Post post = hibernateBlogService.makePost(
+                "<h1>Post view test</h1>",
+                "Post view test",
+                author.getId(),
+                new String[]{"Testing"},
+                new Asset("index.html", new ByteArrayInputStream("Post view test".getBytes(StandardCharsets.UTF_8))),
+                new Asset("coolScript.js", new ByteArrayInputStream("console.log('hi');".getBytes(StandardCharsets.UTF_8))));
+        for (int i = 0; i < 3; i++)
+            hibernateBlogService.makeComment(post.postId(), author.getId(), "Comment %s".formatted(i), "127.0.0.1");
+        // Loads the comment count so the view doesn't need to count them
+        hibernateBlogService.getCommentsTotalPages(post.postId());
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        PostView postView = hibernateBlogService.getPostView(post.postId(), -1, null, null);
+        long statementCount = statistics.getPrepareStatementCount();
+        logger.info("Loaded post view, postId={}, statementCount={}", post.postId(), statementCount);
+
+        assertEquals(post, postView.post());
+        assertEquals(author.getId(), postView.author().getId());
+        assertEquals(3, postView.comments().size());
+        assertTrue(postView.commentAuthors().containsKey(author.getId()));
+        assertEquals(1, postView.totalCommentPages());
+        // Two queries for the post and its collections, one for the comments, and one for every user
+        assertEquals(4, statementCount);
+    }
+
+    @Test
+    @WithMockUser(username = "test", authorities = {
+            Roles.BlogServiceRoles.MAKE_POSTS, Roles.BlogServiceRoles.READ_POSTS,
+            Roles.BlogServiceRoles.MAKE_COMMENTS, Roles.BlogServiceRoles.READ_COMMENTS,
+            Roles.StorageServiceRoles.SAVE_DATA, Roles.StorageServiceRoles.LOAD_DATA
+    })
+    public void commentCursorsReachEveryComment() throws IOException, BlogServiceException, UserServiceException {
+        String authorName = "commentCursorTest_%s".formatted(System.nanoTime());
+        User author = userService.registerDummyUser(authorName, "%s@example.com".formatted(authorName), "127.0.0.1");
+        Post post = hibernateBlogService.makePost("<h1>Comment cursor test</h1>", "Comment cursor test",
+                author.getId(), new String[]{"Testing"},
+                new Asset("index.html", new ByteArrayInputStream("Comment cursor test".getBytes(StandardCharsets.UTF_8))));
+        int commentCount = commentPageSize * 2 + 3;
+        for (int i = 0; i < commentCount; i++)
+            hibernateBlogService.makeComment(post.postId(), author.getId(), "Comment %s".formatted(i), "127.0.0.1");
+
+        // The default page is the oldest comments and is always full, whatever the cached count says
+        PostView oldestPage = hibernateBlogService.getPostView(post.postId(), -1, null, null);
+        assertEquals(commentPageSize, oldestPage.comments().size());
+        assertNull(oldestPage.olderCommentsCursor());
+        assertEquals("Comment 0", oldestPage.comments().get(commentPageSize - 1).content());
+
+        List<Comment> comments = new ArrayList<>(oldestPage.comments());
+        PostView page = oldestPage;
+        while (page.newerCommentsCursor() != null){
+            page = hibernateBlogService.getPostView(post.postId(), -1, null, page.newerCommentsCursor());
+            assertNotNull(page.olderCommentsCursor());
+            comments.addAll(0, page.comments());
+        }
+        assertEquals(commentCount, comments.size());
+        for (int i = 0; i < commentCount; i++)
+            assertEquals("Comment %s".formatted(commentCount - 1 - i), comments.get(i).content());
+
+        PostView olderPage = hibernateBlogService.getPostView(post.postId(), -1, page.olderCommentsCursor(), null);
+        assertEquals(comments.subList(page.comments().size(), page.comments().size() + commentPageSize),
+                olderPage.comments());
+    }
+
+}
@@ -0,0 +1,105 @@
+package me.bannock.website.services.blog.hibernate;
+
+import me.bannock.website.services.blog.BlogServiceException;
+import me.bannock.website.services.blog.StagedAsset;
+import me.bannock.website.services.storage.StagedFile;
+import me.bannock.website.services.storage.StorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PostPublishingTest {
+
+    private StorageService storageService;
+    private PostRepository postRepository;
+    private ExecutorService storageIoExecutor;
+    private HibernateBlogServiceImpl blogService;
+
+    @BeforeEach
+    void setUp(){
+        storageService = Mockito.mock(StorageService.class);
+        postRepository = Mockito.mock(PostRepository.class);
+        storageIoExecutor = Executors.newFixedThreadPool(2);
+        // Transactions run their callbacks straight away and commit nothing
+        blogService = new HibernateBlogServiceImpl(storageService, postRepository, Mockito.mock(CommentRepository.class),
+                null, null, Mockito.mock(BlogCountsCache.class), null,
+                Mockito.mock(PlatformTransactionManager.class), storageIoExecutor, null);
+        ReflectionTestUtils.setField(blogService, "persistOriginalFileNames", true);
+        ReflectionTestUtils.setField(blogService, "stalePublishMillis", 60000);
+
+        when(postRepository.save(any(PostEntity.class))).thenAnswer(invocation -> {
+            PostEntity post = invocation.getArgument(0);
+            post.setPostId(5L);
+            return post;
+        });
+    }
+
+    @AfterEach
+    void tearDown(){
+        storageIoExecutor.shutdownNow();
+    }
+
+    @Test
+    void failedPublishesAreRemoved() throws IOException {
+        StagedAsset index = new StagedAsset("index.html", new StagedFile(Path.of("index"), 0, "0".repeat(64)));
+        doThrow(new IOException("Disk full")).when(storageService).publish(any(), anyString(), anyString());
+
+        assertThrows(BlogServiceException.class,
+                () -> blogService.makePost("Title", "Title", 1, new String[0], index, List.of()));
+        verify(postRepository).save(argThat(post -> post.isDeleted() && post.isPublishing()));
+        verify(storageService).delete("blog/5", "index.html");
+        verify(postRepository).deleteById(5L);
+        verify(postRepository, never()).finishPublishing(anyLong());
+    }
+
+    @Test
+    void postsRemovedWhilePublishingAreNotShown() throws IOException {
+        StagedAsset index = new StagedAsset("index.html", new StagedFile(Path.of("index"), 0, "0".repeat(64)));
+        when(postRepository.finishPublishing(5L)).thenReturn(0);
+
+        assertThrows(BlogServiceException.class,
+                () -> blogService.makePost("Title", "Title", 1, new String[0], index, List.of()));
+        verify(storageService).publish(index.file(), "blog/5", "index.html");
+        verify(storageService).delete("blog/5", "index.html");
+        verify(postRepository).deleteById(5L);
+    }
+
+    @Test
+    void stalePostsAreRemovedWithTheirFiles() throws IOException {
+        PostEntity stalePost = new PostEntity(1, 0, "Title", "Title", List.of(), "index.html",
+                List.of("style.css"), true);
+        stalePost.setPostId(7L);
+        stalePost.setPublishing(true);
+        when(postRepository.findPostIdsPublishingBefore(anyLong())).thenReturn(List.of(7L));
+        when(postRepository.findWithAssetPathsByPostIdIn(List.of(7L))).thenReturn(List.of(stalePost));
+
+        blogService.removeStalePosts();
+        verify(storageService).delete("blog/7", "index.html");
+        verify(storageService).delete("blog/7/assets", "style.css");
+        verify(storageService).delete("blog/7/precompressed/gzip", "style.css");
+        verify(postRepository).deleteById(7L);
+    }
+
+    @Test
+    void sweepDoesNothingWithoutStalePosts(){
+        when(postRepository.findPostIdsPublishingBefore(anyLong())).thenReturn(List.of());
+        blogService.removeStalePosts();
+        verify(postRepository, never()).findWithAssetPathsByPostIdIn(any());
+        verify(postRepository, never()).deleteById(anyLong());
+        verifyNoInteractions(storageService);
+    }
+
+}
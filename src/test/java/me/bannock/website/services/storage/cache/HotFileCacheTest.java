@@ -0,0 +1,92 @@
+package me.bannock.website.services.storage.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.bannock.website.services.storage.StoredFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotFileCacheTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private StoredFile writeFile(String name, String contents) throws IOException {
+        Path path = tempDir.resolve(name);
+        Files.writeString(path, contents, StandardCharsets.US_ASCII);
+        return new StoredFile(path, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+    }
+
+    private byte[] toBytes(ByteBuffer buffer){
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    void promotesFilesAfterEnoughRequests() throws IOException {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        HotFileCache hotFileCache = new HotFileCache(meterRegistry, 1024, 64, 3);
+        StoredFile file = writeFile("hot.txt", "some hot file");
+
+        assertTrue(hotFileCache.get(file).isEmpty());
+        assertTrue(hotFileCache.get(file).isEmpty());
+        Optional<ByteBuffer> hotData = hotFileCache.get(file);
+        assertTrue(hotData.isPresent());
+        assertTrue(hotData.get().isReadOnly());
+        assertArrayEquals("some hot file".getBytes(StandardCharsets.US_ASCII), toBytes(hotData.get()));
+        // Reading one buffer must not move another's position
+        assertEquals(file.size(), hotFileCache.get(file).orElseThrow().remaining());
+
+        assertEquals(2, meterRegistry.get("storage.reads").tag("tier", "memory").counter().count());
+        assertEquals(2, meterRegistry.get("storage.reads").tag("tier", "disk").counter().count());
+    }
+
+    @Test
+    void neverPromotesLargeFiles() throws IOException {
+        HotFileCache hotFileCache = new HotFileCache(new SimpleMeterRegistry(), 1024, 4, 1);
+        StoredFile file = writeFile("large.txt", "larger than four bytes");
+        for (int i = 0; i < 5; i++)
+            assertTrue(hotFileCache.get(file).isEmpty());
+    }
+
+    @Test
+    void remapsReplacedFiles() throws IOException {
+        HotFileCache hotFileCache = new HotFileCache(new SimpleMeterRegistry(), 1024, 64, 1);
+        StoredFile file = writeFile("replaced.txt", "old");
+        assertArrayEquals("old".getBytes(StandardCharsets.US_ASCII), toBytes(hotFileCache.get(file).orElseThrow()));
+
+        StoredFile replaced = writeFile("replaced.txt", "new contents");
+        assertArrayEquals("new contents".getBytes(StandardCharsets.US_ASCII),
+                toBytes(hotFileCache.get(replaced).orElseThrow()));
+    }
+
+    @Test
+    void stopsMappingWhileDroppedFilesStayMapped() throws IOException, InterruptedException {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        HotFileCache hotFileCache = new HotFileCache(meterRegistry, 16, 64, 1);
+        // Held on to like requests still sending them, so the dropped files can't be unmapped
+        List<ByteBuffer> sending = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            sending.add(hotFileCache.get(writeFile("%s.txt".formatted(i), "twelve bytes")).orElseThrow());
+
+        // Only one file fits in the budget, so the other two are dropped once the cache catches up
+        for (int i = 0; i < 100 && meterRegistry.get("storage.hotFiles.droppedMappedBytes").gauge().value() < 24; i++)
+            Thread.sleep(10);
+        assertEquals(24, meterRegistry.get("storage.hotFiles.droppedMappedBytes").gauge().value());
+        assertTrue(hotFileCache.get(writeFile("3.txt", "twelve bytes")).isEmpty());
+        Reference.reachabilityFence(sending);
+    }
+
+}
@@ -0,0 +1,108 @@
+package me.bannock.website.services.storage.impl;
+
+import me.bannock.website.services.storage.StoredFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentAddressedStorageServiceImplTest {
+
+    @TempDir
+    private Path applicationDir;
+
+    private String category;
+
+    @BeforeEach
+    void setUp(){
+        category = "test/ContentAddressedStorageServiceImplTest/%s".formatted(UUID.randomUUID());
+    }
+
+    private ContentAddressedStorageServiceImpl newStorageService(){
+        ContentAddressedStorageServiceImpl storageService = new ContentAddressedStorageServiceImpl(applicationDir.toFile());
+        ReflectionTestUtils.setField(storageService, "ioTransferBuffer", 1024);
+        return storageService;
+    }
+
+    private byte[] randomBytes(){
+        byte[] dataBytes = new byte[4096 + 7];
+        ThreadLocalRandom.current().nextBytes(dataBytes);
+        return dataBytes;
+    }
+
+    @Test
+    void identicalDataIsStoredOnce() throws IOException {
+        ContentAddressedStorageServiceImpl storageService = newStorageService();
+        byte[] dataBytes = randomBytes();
+        storageService.save(new ByteArrayInputStream(dataBytes), category, "first.glunggus");
+        storageService.save(new ByteArrayInputStream(dataBytes), category + "/other", "second.glunggus");
+
+        StoredFile first = storageService.loadFile(category, "first.glunggus");
+        StoredFile second = storageService.loadFile(category + "/other", "second.glunggus");
+        assertEquals(first.path(), second.path());
+        assertEquals(first.getSha256(), second.getSha256());
+        assertArrayEquals(dataBytes, storageService.load(category, "first.glunggus").readAllBytes());
+    }
+
+    @Test
+    void dataIsDeletedWithItsLastReference() throws IOException {
+        ContentAddressedStorageServiceImpl storageService = newStorageService();
+        byte[] dataBytes = randomBytes();
+        storageService.save(new ByteArrayInputStream(dataBytes), category, "first.glunggus");
+        storageService.save(new ByteArrayInputStream(dataBytes), category, "second.glunggus");
+        StoredFile stored = storageService.loadFile(category, "first.glunggus");
+
+        assertTrue(storageService.delete(category, "first.glunggus"));
+        assertThrows(FileNotFoundException.class, () -> storageService.load(category, "first.glunggus"));
+        assertTrue(Files.exists(stored.path()));
+
+        // Replacing the last reference with different data leaves nothing referencing the old data
+        storageService.save(new ByteArrayInputStream(randomBytes()), category, "second.glunggus");
+        assertFalse(Files.exists(stored.path()));
+    }
+
+    @Test
+    void referenceCountsSurviveRestart() throws IOException {
+        byte[] dataBytes = randomBytes();
+        newStorageService().save(new ByteArrayInputStream(dataBytes), category, "first.glunggus");
+
+        ContentAddressedStorageServiceImpl restartedStorageService = newStorageService();
+        StoredFile stored = restartedStorageService.loadFile(category, "first.glunggus");
+        assertArrayEquals(dataBytes, Files.readAllBytes(stored.path()));
+        assertTrue(restartedStorageService.delete(category, "first.glunggus"));
+        assertFalse(Files.exists(stored.path()));
+    }
+
+    @Test
+    void dataIsNotDeletedWithoutACount() throws IOException {
+        ContentAddressedStorageServiceImpl storageService = newStorageService();
+
+        // Stored without the running server counting it, as if its count had been lost
+        String sha256 = "ab".repeat(32);
+        Path blob = applicationDir.resolve("cas/blobs/ab").resolve(sha256);
+        Path indexFile = applicationDir.resolve("cas/index").resolve(category).resolve("uncounted.glunggus");
+        Files.createDirectories(blob.getParent());
+        Files.createDirectories(indexFile.getParent());
+        Files.write(blob, randomBytes());
+        Files.writeString(indexFile, sha256, StandardCharsets.US_ASCII);
+
+        assertTrue(storageService.delete(category, "uncounted.glunggus"));
+        assertTrue(Files.exists(blob));
+
+        // Left for the next startup, which counts every reference before deleting anything
+        newStorageService();
+        assertFalse(Files.exists(blob));
+    }
+
+}
@@ -1,6 +1,9 @@
 package me.bannock.website.services.storage.impl;
 
 import me.bannock.website.security.Roles;
+import me.bannock.website.services.storage.DataTooLargeException;
+import me.bannock.website.services.storage.StagedFile;
+import me.bannock.website.services.storage.StoredFile;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,7 +12,13 @@ import org.springframework.security.test.context.support.WithMockUser;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Optional;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -75,4 +84,57 @@ class FileStorageServiceImplTest {
         assertThrows(IllegalArgumentException.class, () -> storageService.save(new ByteArrayInputStream(new byte[1]), category, id));
     }
 
-}
\ No newline at end of file
+    @Test
+    @WithMockUser(username = "test", authorities = {
+            Roles.StorageServiceRoles.SAVE_DATA, Roles.StorageServiceRoles.LOAD_DATA
+    })
+    void saveAndLoadFile(){
+        assertDoesNotThrow(() -> {
+            byte[] dataBytes = new byte[ioTransferBuffer * 3 + 7];
+            ThreadLocalRandom.current().nextBytes(dataBytes);
+            storageService.save(new ByteArrayInputStream(dataBytes), getTestCategory(), "file.glunggus");
+
+            StoredFile storedFile = storageService.loadFile(getTestCategory(), "file.glunggus");
+            assertEquals(dataBytes.length, storedFile.size());
+            assertArrayEquals(dataBytes, Files.readAllBytes(storedFile.path()));
+        });
+        assertThrows(FileNotFoundException.class, () -> storageService.loadFile(getTestCategory(), "missing.glunggus"));
+    }
+
+    @Test
+    @WithMockUser(username = "test", authorities = {
+            Roles.StorageServiceRoles.SAVE_DATA, Roles.StorageServiceRoles.LOAD_DATA
+    })
+    void stageAndPublishFile(){
+        assertDoesNotThrow(() -> {
+            byte[] dataBytes = new byte[ioTransferBuffer * 3 + 7];
+            ThreadLocalRandom.current().nextBytes(dataBytes);
+            StagedFile stagedFile = storageService.stage(new ByteArrayInputStream(dataBytes), dataBytes.length);
+            assertEquals(dataBytes.length, stagedFile.size());
+            String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(dataBytes));
+            assertEquals(sha256, stagedFile.sha256());
+            assertTrue(storageService.findFile(getTestCategory(), "file.glunggus").isEmpty());
+
+            storageService.publish(stagedFile, getTestCategory(), "file.glunggus");
+            assertFalse(Files.exists(stagedFile.path()));
+            StoredFile storedFile = storageService.loadFile(getTestCategory(), "file.glunggus");
+            assertArrayEquals(dataBytes, Files.readAllBytes(storedFile.path()));
+            // Only missing if the file system can't store file attributes
+            if (Files.getFileStore(storedFile.path()).supportsFileAttributeView(UserDefinedFileAttributeView.class))
+                assertEquals(Optional.of(sha256), storedFile.getSha256());
+            else
+                assertTrue(storedFile.getSha256().isEmpty());
+        });
+    }
+
+    @Test
+    @WithMockUser(username = "test", authorities = {
+            Roles.StorageServiceRoles.SAVE_DATA
+    })
+    void stageDataLargerThanLimit(){
+        byte[] dataBytes = new byte[ioTransferBuffer * 2];
+        assertThrows(DataTooLargeException.class,
+                () -> storageService.stage(new ByteArrayInputStream(dataBytes), ioTransferBuffer));
+    }
+
+}
@@ -0,0 +1,83 @@
+package me.bannock.website.services.user.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.bannock.website.services.user.User;
+import me.bannock.website.services.user.UserServiceException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserCacheTest {
+
+    private final User testUser = new User(7, "Tester", "tester@example.com", "127.0.0.1",
+            null, List.of(), false, false, false, true);
+
+    @Test
+    void indexesPointAtOneEntry() throws UserServiceException {
+        UserCache userCache = new UserCache(new SimpleMeterRegistry(), 100, 60000);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertSame(testUser, userCache.getWithName("Tester", name -> {
+            loads.incrementAndGet();
+            return testUser;
+        }));
+        UserCache.UserLoader<String> failingLoader = key -> {
+            throw new UserServiceException("Should have been cached");
+        };
+        assertSame(testUser, userCache.getWithName("tester", failingLoader));
+        assertSame(testUser, userCache.getWithEmail("TESTER@example.com", failingLoader));
+        assertSame(testUser, userCache.getWithId(7, id -> {
+            throw new UserServiceException("Should have been cached");
+        }));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void invalidateRemovesIndexes() throws UserServiceException {
+        UserCache userCache = new UserCache(new SimpleMeterRegistry(), 100, 60000);
+        userCache.put(testUser);
+        userCache.invalidate(testUser.getId());
+
+        AtomicInteger loads = new AtomicInteger();
+        userCache.getWithEmail("tester@example.com", email -> {
+            loads.incrementAndGet();
+            return testUser;
+        });
+        assertEquals(1, loads.get());
+        assertTrue(userCache.getAllPresent(List.of(testUser.getId())).containsKey(testUser.getId()));
+    }
+
+    @Test
+    void failedLoadsAreNotCached() {
+        UserCache userCache = new UserCache(new SimpleMeterRegistry(), 100, 60000);
+        UserServiceException exception = new UserServiceException("No user with that id exists.");
+        assertSame(exception, assertThrows(UserServiceException.class, () -> userCache.getWithId(1, id -> {
+            throw exception;
+        })));
+        assertTrue(userCache.getAllPresent(List.of(1L)).isEmpty());
+    }
+
+    @Test
+    void usersInvalidatedWhileLoadingAreNotCached() throws UserServiceException {
+        UserCache userCache = new UserCache(new SimpleMeterRegistry(), 100, 60000);
+        // The user is changed and invalidated after the loader read them, but before they were cached
+        assertSame(testUser, userCache.getWithId(testUser.getId(), id -> {
+            userCache.invalidate(id);
+            return testUser;
+        }));
+        assertTrue(userCache.getAllPresent(List.of(testUser.getId())).isEmpty());
+
+        assertEquals(List.of(testUser), userCache.getAll(List.of(testUser.getId()), ids -> {
+            userCache.invalidate(testUser.getId());
+            return List.of(testUser);
+        }));
+        assertTrue(userCache.getAllPresent(List.of(testUser.getId())).isEmpty());
+
+        userCache.getAll(List.of(testUser.getId()), ids -> List.of(testUser));
+        assertTrue(userCache.getAllPresent(List.of(testUser.getId())).containsKey(testUser.getId()));
+    }
+
+}